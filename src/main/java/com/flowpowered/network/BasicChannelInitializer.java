@@ -23,38 +23,239 @@
  */
 package com.flowpowered.network;
 
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
-import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.local.LocalChannel;
+import io.netty.handler.stream.ChunkedWriteHandler;
 
 import com.flowpowered.network.pipeline.MessageDecoder;
 import com.flowpowered.network.pipeline.MessageEncoder;
 import com.flowpowered.network.pipeline.MessageHandler;
 import com.flowpowered.network.pipeline.MessageProcessorDecoder;
 import com.flowpowered.network.pipeline.MessageProcessorEncoder;
+import com.flowpowered.network.pipeline.MultiplexDecoder;
+import com.flowpowered.network.pipeline.MultiplexEncoder;
+import com.flowpowered.network.session.BasicSession;
 
 /**
  * Used to initialize the channels.
+ * <br/>
+ * With message passthrough enabled, {@link LocalChannel}s only get the message handler: messages are handed over to the other end of the channel
+ * as they are, without being encoded, processed or decoded. Both ends must then handle the same message classes, as they would with a shared
+ * {@link com.flowpowered.network.protocol.Protocol}.
+ * <br/>
+ * With multiplexing enabled, messages are sent on logical streams through a {@link MultiplexEncoder} and {@link MultiplexDecoder}, which replace the
+ * plain framing of the {@link MessageEncoder}. Both ends must enable it.
+ * <br/>
+ * With streaming enabled, messages of a {@link StreamingCodec} are written in chunks as the channel can take them, rather than encoded into one buffer.
  */
-public class BasicChannelInitializer extends ChannelInitializer<SocketChannel> {
+public class BasicChannelInitializer extends ChannelInitializer<Channel> {
     private final ConnectionManager connectionManager;
+    /**
+     * The group the initialized channels are added to, or null
+     */
+    private final ChannelGroup channels;
+    private volatile boolean messagePassthrough = false;
+    private volatile Multiplexing multiplexing = null;
+    private volatile boolean streaming = false;
+    private volatile int maxFrameLength = Integer.MAX_VALUE;
+    private volatile int maxReplayLength = MessageDecoder.DEFAULT_MAX_REPLAY_LENGTH;
+    /**
+     * The low and high write buffer watermarks, or null to keep Netty's
+     */
+    private volatile int[] writeBufferWatermarks = null;
+    private volatile boolean batchInbound = false;
 
     public BasicChannelInitializer(ConnectionManager connectionManager) {
+        this(connectionManager, null);
+    }
+
+    /**
+     * Creates an initializer which also adds the channels to a group, so that they can be closed together.
+     *
+     * @param connectionManager the connection manager creating the sessions
+     * @param channels the group to add the channels to, or null
+     */
+    public BasicChannelInitializer(ConnectionManager connectionManager, ChannelGroup channels) {
         this.connectionManager = connectionManager;
+        this.channels = channels;
+    }
+
+    public boolean isMessagePassthrough() {
+        return messagePassthrough;
+    }
+
+    /**
+     * Sets whether messages are handed over to the other end of local channels without encoding. Only affects channels initialized afterwards.
+     *
+     * @param messagePassthrough whether to pass messages through
+     */
+    public void setMessagePassthrough(boolean messagePassthrough) {
+        this.messagePassthrough = messagePassthrough;
+    }
+
+    public boolean isMultiplexing() {
+        return multiplexing != null;
+    }
+
+    /**
+     * Enables multiplexing of messages onto logical streams for the channels initialized afterwards.
+     *
+     * @param fragmentSize the maximum size of a fragment sent or received, which must be the same at both ends, see {@link MultiplexEncoder#DEFAULT_FRAGMENT_SIZE}
+     * @param maxMessageSize the maximum size of a received message, see {@link MultiplexDecoder#DEFAULT_MAX_MESSAGE_SIZE}
+     * @param weights the weight of each stream, by stream id
+     */
+    public void setMultiplexing(int fragmentSize, int maxMessageSize, int... weights) {
+        if (fragmentSize <= 0 || maxMessageSize <= 0) {
+            throw new IllegalArgumentException("Fragment and message sizes must be positive");
+        }
+        for (int weight : weights) {
+            if (weight <= 0) {
+                throw new IllegalArgumentException("Stream weights must be positive");
+            }
+        }
+        if (weights.length == 0) {
+            throw new IllegalArgumentException("At least one stream is needed");
+        }
+        multiplexing = new Multiplexing(fragmentSize, maxMessageSize, weights.clone());
+    }
+
+    /**
+     * Disables multiplexing for the channels initialized afterwards.
+     */
+    public void disableMultiplexing() {
+        multiplexing = null;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Sets whether messages of a {@link StreamingCodec} are written chunk by chunk through a {@link ChunkedWriteHandler}. Only affects channels
+     * initialized afterwards, and not multiplexed ones.
+     *
+     * @param streaming whether to stream messages out
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    /**
+     * Sets the longest frame buffered by the decoder of the channels initialized afterwards, see {@link MessageDecoder#setMaxFrameLength(int)}.
+     *
+     * @param maxFrameLength the maximum frame length in bytes
+     */
+    public void setMaxFrameLength(int maxFrameLength) {
+        if (maxFrameLength <= 0) {
+            throw new IllegalArgumentException("maxFrameLength must be positive: " + maxFrameLength);
+        }
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    public int getMaxReplayLength() {
+        return maxReplayLength;
+    }
+
+    /**
+     * Sets the bytes buffered by the decoder of the channels initialized afterwards while a message runs out of bytes to decode from, see
+     * {@link MessageDecoder#setMaxReplayLength(int)}.
+     *
+     * @param maxReplayLength the maximum number of bytes
+     */
+    public void setMaxReplayLength(int maxReplayLength) {
+        if (maxReplayLength <= 0) {
+            throw new IllegalArgumentException("maxReplayLength must be positive: " + maxReplayLength);
+        }
+        this.maxReplayLength = maxReplayLength;
+    }
+
+    /**
+     * Sets the write buffer watermarks of the channels initialized afterwards, see {@link BasicSession#setWriteBufferWatermarks(int, int)}.
+     *
+     * @param low the low watermark in bytes
+     * @param high the high watermark in bytes
+     */
+    public void setWriteBufferWatermarks(int low, int high) {
+        if (low < 0 || high < low) {
+            throw new IllegalArgumentException("Invalid write buffer watermarks: low " + low + ", high " + high);
+        }
+        writeBufferWatermarks = new int[] {low, high};
+    }
+
+    public boolean isBatchInbound() {
+        return batchInbound;
+    }
+
+    /**
+     * Sets whether the messages decoded from one read are passed to the session together, see {@link MessageHandler#setBatchInbound(boolean)}.
+     * Only affects channels initialized afterwards.
+     *
+     * @param batchInbound whether to batch inbound messages
+     */
+    public void setBatchInbound(boolean batchInbound) {
+        this.batchInbound = batchInbound;
     }
 
     @Override
-    protected final void initChannel(SocketChannel c) {
+    protected final void initChannel(Channel c) {
+        if (channels != null) {
+            channels.add(c);
+        }
+        final int[] watermarks = writeBufferWatermarks;
+        if (watermarks != null) {
+            BasicSession.setWriteBufferWatermarks(c.config(), watermarks[0], watermarks[1]);
+        }
         MessageHandler handler = new MessageHandler(connectionManager);
+        handler.setBatchInbound(batchInbound);
+        if (messagePassthrough && c instanceof LocalChannel) {
+            c.pipeline().addLast("handler", handler);
+            return;
+        }
         MessageProcessorDecoder processorDecoder = new MessageProcessorDecoder(handler);
         MessageProcessorEncoder processorEncoder = new MessageProcessorEncoder(handler);
         MessageDecoder decoder = new MessageDecoder(handler);
+        decoder.setMaxFrameLength(maxFrameLength);
+        decoder.setMaxReplayLength(maxReplayLength);
+        final Multiplexing multiplexing = this.multiplexing;
+        if (multiplexing != null) {
+            c.pipeline()
+                    .addLast("processorDecoder", processorDecoder)
+                    .addLast("multiplexDecoder", new MultiplexDecoder(multiplexing.maxMessageSize, multiplexing.fragmentSize, multiplexing.weights.length))
+                    .addLast("decoder", decoder)
+                    .addLast("processorEncoder", processorEncoder)
+                    .addLast("encoder", new MultiplexEncoder(handler, multiplexing.fragmentSize, multiplexing.weights))
+                    .addLast("handler", handler);
+            return;
+        }
         MessageEncoder encoder = new MessageEncoder(handler);
 
         c.pipeline()
                 .addLast("processorDecoder", processorDecoder)
                 .addLast("decoder", decoder)
-                .addLast("processorEncoder", processorEncoder)
+                .addLast("processorEncoder", processorEncoder);
+        if (streaming) {
+            c.pipeline().addLast("chunkedWriter", new ChunkedWriteHandler());
+        }
+        c.pipeline()
                 .addLast("encoder", encoder)
                 .addLast("handler", handler);
     }
+
+    private static class Multiplexing {
+        private final int fragmentSize;
+        private final int maxMessageSize;
+        private final int[] weights;
+
+        private Multiplexing(int fragmentSize, int maxMessageSize, int[] weights) {
+            this.fragmentSize = fragmentSize;
+            this.maxMessageSize = maxMessageSize;
+            this.weights = weights;
+        }
+    }
 }
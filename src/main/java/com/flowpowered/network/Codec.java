@@ -50,8 +50,21 @@ public interface Codec<T extends Message> {
     ByteBuf encode(ByteBuf buf, T message) throws IOException;
 
     public static class CodecRegistration {
+        /**
+         * How fast the size hint shrinks towards smaller messages, as a shift of the difference.
+         */
+        private static final int SIZE_HINT_DECAY_SHIFT = 3;
+        /**
+         * The largest size hint, so that one huge message doesn't make the following ones allocate as much. Larger messages start from this size
+         * and grow their buffer while encoding.
+         */
+        public static final int MAX_SIZE_HINT = 64 * 1024;
         private final int opcode;
         private final Codec<?> codec;
+        /**
+         * A decaying maximum of the encoded sizes. Updates may race and be lost, which only affects the accuracy of the hint.
+         */
+        private volatile int sizeHint;
 
         public CodecRegistration(int opcode, Codec<?> codec) {
             this.opcode = opcode;
@@ -66,6 +79,31 @@ public interface Codec<T extends Message> {
             return (Codec<M>) codec;
         }
 
+        /**
+         * Gets the expected encoded size of messages using this codec, learned from the sizes previously passed to {@link #recordEncodedSize(int)}.
+         * The hint follows the largest recent sizes immediately and shrinks slowly when messages get smaller. It's at most {@link #MAX_SIZE_HINT}.
+         *
+         * @return the size hint in bytes, or 0 if no message was encoded yet
+         */
+        public int getSizeHint() {
+            return sizeHint;
+        }
+
+        /**
+         * Records the size of a message encoded with this codec.
+         *
+         * @param size the encoded size in bytes, without the header
+         */
+        public void recordEncodedSize(int size) {
+            size = Math.min(size, MAX_SIZE_HINT);
+            final int hint = sizeHint;
+            if (size > hint) {
+                sizeHint = size;
+            } else if (size < hint) {
+                sizeHint = hint - ((hint - size) >> SIZE_HINT_DECAY_SHIFT);
+            }
+        }
+
         @Override
         public int hashCode() {
             int hash = 5;
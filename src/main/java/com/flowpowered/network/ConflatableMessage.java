@@ -0,0 +1,40 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network;
+
+/**
+ * A message which supersedes the unsent messages of the same class and conflation key, such as the latest position of an entity. Where conflation
+ * is enabled, a queued message is replaced in place by a newer one, so that a session falling behind sends fewer and fresher messages.
+ *
+ * @see com.flowpowered.network.session.PulsingSession#setConflateQueuedSends(boolean)
+ */
+public interface ConflatableMessage extends Message {
+    /**
+     * Gets the key of the value this message carries, such as an entity id. Keys are compared with {@link Object#equals(Object)}, and only between
+     * messages of the same class.
+     *
+     * @return the conflation key
+     */
+    public Object getConflationKey();
+}
@@ -0,0 +1,55 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network;
+
+/**
+ * The priority classes of outgoing messages. Queued messages of the weighted classes are written in proportion to their weights, so that a flood
+ * of low priority messages can't hold back the others for long, and {@link #CONTROL} messages are written ahead of all of them.
+ *
+ * @see com.flowpowered.network.session.PulsingSession#send(com.flowpowered.network.session.PulsingSession.SendType, MessagePriority, Message)
+ */
+public enum MessagePriority {
+    /**
+     * Messages which are never held back by queued messages, such as keep-alives.
+     */
+    CONTROL(0),
+    HIGH(8),
+    NORMAL(4),
+    LOW(1);
+
+    private final int defaultWeight;
+
+    private MessagePriority(int defaultWeight) {
+        this.defaultWeight = defaultWeight;
+    }
+
+    /**
+     * Gets the number of messages of this class written in turn with the other classes, unless changed.
+     *
+     * @return the default weight, or 0 for {@link #CONTROL}
+     */
+    public int getDefaultWeight() {
+        return defaultWeight;
+    }
+}
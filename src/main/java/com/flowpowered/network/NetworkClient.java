@@ -29,27 +29,116 @@ import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.unix.DomainSocketAddress;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.GlobalEventExecutor;
 
 /**
  * This class defines an easy, general way to start a client. It is recommended that any clients use or extend this class.
  */
 public abstract class NetworkClient implements ConnectionManager {
     private final Bootstrap bootstrap = new Bootstrap();
-    private final EventLoopGroup workerGroup = new NioEventLoopGroup();
+    /**
+     * The bootstrap for Unix domain sockets, on the epoll transport only. A bootstrap's channel class can't be changed, even on a clone.
+     */
+    private final Bootstrap domainBootstrap;
+    private final Transport transport;
+    private final BasicChannelInitializer initializer = new BasicChannelInitializer(this);
+    private final EventLoopGroup workerGroup;
+    /**
+     * Whether the event loop group was created by this client, and should be shut down with it
+     */
+    private final boolean ownsGroup;
+    /**
+     * The connected channels, closed on shutdown
+     */
+    private final ChannelGroup channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
 
+    /**
+     * Creates a client on the best transport available, see {@link Transport#best()}.
+     */
     public NetworkClient() {
+        this(Transport.best());
+    }
+
+    /**
+     * Creates a client on the given transport.
+     *
+     * @param transport the transport
+     * @throws IllegalArgumentException if the transport isn't available on this platform
+     */
+    public NetworkClient(Transport transport) {
+        this(transport, 0);
+    }
+
+    /**
+     * Creates a client on the given transport, with its own event loop group of the given size.
+     *
+     * @param transport the transport
+     * @param threads the number of threads, or 0 for Netty's default
+     * @throws IllegalArgumentException if the transport isn't available on this platform
+     */
+    public NetworkClient(Transport transport, int threads) {
+        this(transport, checkAvailable(transport).newEventLoopGroup(threads), true);
+    }
+
+    /**
+     * Creates a client on the given transport, running on an existing event loop group. The group can be shared with other clients and servers,
+     * and isn't shut down by {@link #shutdown()}, which only closes the connections of this client.
+     *
+     * @param transport the transport
+     * @param workerGroup the event loop group
+     * @throws IllegalArgumentException if the transport isn't available on this platform, or the group isn't compatible with it
+     */
+    public NetworkClient(Transport transport, EventLoopGroup workerGroup) {
+        this(transport, workerGroup, false);
+    }
+
+    private NetworkClient(Transport transport, EventLoopGroup workerGroup, boolean ownsGroup) {
+        checkAvailable(transport);
+        if (!transport.isCompatible(workerGroup)) {
+            throw new IllegalArgumentException("Event loop group is not compatible with transport " + transport);
+        }
+        this.transport = transport;
+        this.workerGroup = workerGroup;
+        this.ownsGroup = ownsGroup;
         bootstrap
             .group(workerGroup)
-            .channel(NioSocketChannel.class)
-            .handler(new BasicChannelInitializer(this));
+            .channel(transport.getChannelClass())
+            .handler(initializer);
+        if (transport == Transport.EPOLL) {
+            domainBootstrap = new Bootstrap()
+                .group(workerGroup)
+                .channel(EpollDomainSocketChannel.class)
+                .handler(initializer);
+        } else {
+            domainBootstrap = null;
+        }
+    }
+
+    private static Transport checkAvailable(Transport transport) {
+        if (!transport.isAvailable()) {
+            throw new IllegalArgumentException("Transport " + transport + " is not available");
+        }
+        return transport;
     }
 
+    /**
+     * Connects to an address. Connecting to a {@link DomainSocketAddress} uses a Unix domain socket, which requires the {@link Transport#EPOLL}
+     * transport.
+     *
+     * @param address the address to connect to
+     * @return the future of the connection
+     * @throws IllegalArgumentException if the address is a domain socket address and the transport isn't epoll
+     */
     public ChannelFuture connect(final SocketAddress address) {
-        return bootstrap.connect(address).addListener(new GenericFutureListener<Future<? super Void>>() {
+        final ChannelFuture connect = getBootstrap(address).connect(address);
+        channels.add(connect.channel());
+        return connect.addListener(new GenericFutureListener<Future<? super Void>>() {
             @Override
             public void operationComplete(Future<? super Void> f) throws Exception {
                 if (f.isSuccess()) {
@@ -61,6 +150,84 @@ public abstract class NetworkClient implements ConnectionManager {
         });
     }
 
+    private Bootstrap getBootstrap(SocketAddress address) {
+        if (!(address instanceof DomainSocketAddress)) {
+            return bootstrap;
+        }
+        if (domainBootstrap == null) {
+            throw new IllegalArgumentException("Unix domain sockets require the epoll transport, not " + transport);
+        }
+        return domainBootstrap;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Sets whether messages are handed over without encoding on the {@link Transport#LOCAL} transport. Both the client and its server must use
+     * the same message classes. Must be set before connecting.
+     *
+     * @param messagePassthrough whether to pass messages through
+     * @see BasicChannelInitializer#setMessagePassthrough(boolean)
+     */
+    public void setMessagePassthrough(boolean messagePassthrough) {
+        initializer.setMessagePassthrough(messagePassthrough);
+    }
+
+    /**
+     * Enables multiplexing of messages onto logical streams, see {@link StreamedMessage}. The server must enable it too. Must be set before connecting.
+     *
+     * @param fragmentSize the maximum size of a fragment
+     * @param maxMessageSize the maximum size of a received message
+     * @param weights the weight of each stream, by stream id
+     * @see BasicChannelInitializer#setMultiplexing(int, int, int...)
+     */
+    public void setMultiplexing(int fragmentSize, int maxMessageSize, int... weights) {
+        initializer.setMultiplexing(fragmentSize, maxMessageSize, weights);
+    }
+
+    /**
+     * Sets whether messages of a {@link StreamingCodec} are written in chunks as the channel can take them. Must be set before connecting.
+     *
+     * @param streaming whether to stream messages out
+     * @see BasicChannelInitializer#setStreaming(boolean)
+     */
+    public void setStreaming(boolean streaming) {
+        initializer.setStreaming(streaming);
+    }
+
+    /**
+     * Sets the longest frame that is buffered before it is decoded. Must be set before connecting.
+     *
+     * @param maxFrameLength the maximum frame length in bytes
+     * @see BasicChannelInitializer#setMaxFrameLength(int)
+     */
+    public void setMaxFrameLength(int maxFrameLength) {
+        initializer.setMaxFrameLength(maxFrameLength);
+    }
+
+    /**
+     * Sets the write buffer watermarks of the connections, past which their sessions become unwritable. Must be set before connecting.
+     *
+     * @param low the low watermark in bytes
+     * @param high the high watermark in bytes
+     * @see BasicChannelInitializer#setWriteBufferWatermarks(int, int)
+     */
+    public void setWriteBufferWatermarks(int low, int high) {
+        initializer.setWriteBufferWatermarks(low, high);
+    }
+
+    /**
+     * Sets whether the messages decoded from one read are passed to the session together. Must be set before connecting.
+     *
+     * @param batchInbound whether to batch inbound messages
+     * @see BasicChannelInitializer#setBatchInbound(boolean)
+     */
+    public void setBatchInbound(boolean batchInbound) {
+        initializer.setBatchInbound(batchInbound);
+    }
+
     /**
      * Sets an {@link ChannelOption} to apply prior to connecting. After a connection has been established, this method is useless; an Exception *may* be thrown on it's use.
      * @param <T>
@@ -69,6 +236,9 @@ public abstract class NetworkClient implements ConnectionManager {
      */
     public <T> void preConnectOption(ChannelOption<T> option, T value) {
         bootstrap.option(option, value);
+        if (domainBootstrap != null) {
+            domainBootstrap.option(option, value);
+        }
     }
 
     /**
@@ -88,6 +258,9 @@ public abstract class NetworkClient implements ConnectionManager {
 
     @Override
     public void shutdown() {
-        workerGroup.shutdownGracefully();
+        channels.close();
+        if (ownsGroup) {
+            workerGroup.shutdownGracefully();
+        }
     }
 }
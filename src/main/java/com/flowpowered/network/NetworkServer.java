@@ -25,14 +25,23 @@ package com.flowpowered.network;
 
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.unix.DomainSocketAddress;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.Promise;
 
 import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class defines an easy, general way to start a server. It is recommended that any server use or extend this class.
@@ -42,20 +51,116 @@ public abstract class NetworkServer implements ConnectionManager {
      * The {@link ServerBootstrap} used to initialize Netty.
      */
     private final ServerBootstrap bootstrap = new ServerBootstrap();
-    private final EventLoopGroup bossGroup = new NioEventLoopGroup();
-    private final EventLoopGroup workerGroup = new NioEventLoopGroup();
+    /**
+     * The bootstrap for Unix domain sockets, on the epoll transport only. A bootstrap's channel class can't be changed, even on a clone.
+     */
+    private final ServerBootstrap domainBootstrap;
+    private final Transport transport;
+    private final EventLoopGroup bossGroup;
+    private final EventLoopGroup workerGroup;
+    /**
+     * Whether the event loop groups were created by this server, and should be shut down with it
+     */
+    private final boolean ownsGroups;
+    /**
+     * The bound server channels, closed on shutdown
+     */
+    private final ChannelGroup serverChannels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    /**
+     * The accepted channels, closed on shutdown
+     */
+    private final ChannelGroup childChannels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    private final BasicChannelInitializer initializer = new BasicChannelInitializer(this, childChannels);
 
+    /**
+     * Creates a server on the best transport available, see {@link Transport#best()}.
+     */
     public NetworkServer() {
+        this(Transport.best());
+    }
+
+    /**
+     * Creates a server on the given transport.
+     *
+     * @param transport the transport
+     * @throws IllegalArgumentException if the transport isn't available on this platform
+     */
+    public NetworkServer(Transport transport) {
+        this(transport, 0, 0);
+    }
+
+    /**
+     * Creates a server on the given transport, with its own event loop groups of the given sizes.
+     *
+     * @param transport the transport
+     * @param bossThreads the number of threads accepting connections, or 0 for Netty's default
+     * @param workerThreads the number of threads serving connections, or 0 for Netty's default
+     * @throws IllegalArgumentException if the transport isn't available on this platform
+     */
+    public NetworkServer(Transport transport, int bossThreads, int workerThreads) {
+        this(transport, checkAvailable(transport).newEventLoopGroup(bossThreads), transport.newEventLoopGroup(workerThreads), true);
+    }
+
+    /**
+     * Creates a server on the given transport, running on existing event loop groups. They can be shared with other servers and clients, and
+     * aren't shut down by {@link #shutdown()}, which only closes the server channels and the accepted connections. The same group can be used as both boss and worker group.
+     *
+     * @param transport the transport
+     * @param bossGroup the group accepting connections
+     * @param workerGroup the group serving connections
+     * @throws IllegalArgumentException if the transport isn't available on this platform, or a group isn't compatible with it
+     */
+    public NetworkServer(Transport transport, EventLoopGroup bossGroup, EventLoopGroup workerGroup) {
+        this(transport, bossGroup, workerGroup, false);
+    }
+
+    private NetworkServer(Transport transport, EventLoopGroup bossGroup, EventLoopGroup workerGroup, boolean ownsGroups) {
+        checkAvailable(transport);
+        if (!transport.isCompatible(bossGroup) || !transport.isCompatible(workerGroup)) {
+            throw new IllegalArgumentException("Event loop groups are not compatible with transport " + transport);
+        }
+        this.transport = transport;
+        this.bossGroup = bossGroup;
+        this.workerGroup = workerGroup;
+        this.ownsGroups = ownsGroups;
         bootstrap
             .group(bossGroup, workerGroup)
-            .channel(NioServerSocketChannel.class)
-            .childHandler(new BasicChannelInitializer(this))
-            .childOption(ChannelOption.TCP_NODELAY, true)
-            .childOption(ChannelOption.SO_KEEPALIVE, true);
+            .channel(transport.getServerChannelClass())
+            .childHandler(initializer);
+        if (transport != Transport.LOCAL) {
+            bootstrap
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.SO_KEEPALIVE, true);
+        }
+        if (transport == Transport.EPOLL) {
+            domainBootstrap = new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(EpollServerDomainSocketChannel.class)
+                .childHandler(initializer);
+        } else {
+            domainBootstrap = null;
+        }
+    }
+
+    private static Transport checkAvailable(Transport transport) {
+        if (!transport.isAvailable()) {
+            throw new IllegalArgumentException("Transport " + transport + " is not available");
+        }
+        return transport;
     }
 
+    /**
+     * Binds an address. Binding a {@link DomainSocketAddress} listens on a Unix domain socket, which requires the {@link Transport#EPOLL}
+     * transport.
+     *
+     * @param address the address to bind
+     * @return the future of the bind
+     * @throws IllegalArgumentException if the address is a domain socket address and the transport isn't epoll
+     */
     public ChannelFuture bind(final SocketAddress address) {
-        return bootstrap.bind(address).addListener(new GenericFutureListener<Future<? super Void>>() {
+        final ChannelFuture bind = getBootstrap(address).bind(address);
+        serverChannels.add(bind.channel());
+        return bind.addListener(new GenericFutureListener<Future<? super Void>>() {
             @Override
             public void operationComplete(Future<? super Void> f) throws Exception {
                 if (f.isSuccess()) {
@@ -67,6 +172,157 @@ public abstract class NetworkServer implements ConnectionManager {
         });
     }
 
+    /**
+     * Binds the address several times with {@code SO_REUSEPORT}, so that the kernel balances incoming connections between the server channels.
+     * Each server channel is served by its own event loop of the boss group, as long as the group has enough of them. Other transports than
+     * {@link Transport#EPOLL} don't support {@code SO_REUSEPORT}, and bind the address once.
+     * <br/>
+     * {@link #onBindSuccess(SocketAddress)} is called once all the channels are bound, and {@link #onBindFailure(SocketAddress, Throwable)} if any
+     * fails to bind, in which case the channels that did bind are closed. A {@link DomainSocketAddress} is bound once.
+     *
+     * @param address the address to bind
+     * @param acceptors the number of server channels to bind
+     * @return a future completing once all the channels are bound, or any fails to
+     */
+    public Future<Void> bind(final SocketAddress address, int acceptors) {
+        if (acceptors <= 1 || transport != Transport.EPOLL || address instanceof DomainSocketAddress) {
+            return bind(address);
+        }
+        final ServerBootstrap reusePort = bootstrap.clone().option(EpollChannelOption.SO_REUSEPORT, true);
+        final Promise<Void> promise = bossGroup.next().newPromise();
+        final List<ChannelFuture> binds = new ArrayList<>(acceptors);
+        final AtomicInteger remaining = new AtomicInteger(acceptors);
+        final ChannelFutureListener listener = new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture f) throws Exception {
+                if (!f.isSuccess()) {
+                    if (promise.tryFailure(f.cause())) {
+                        for (ChannelFuture bind : binds) {
+                            bind.channel().close();
+                        }
+                        onBindFailure(address, f.cause());
+                    }
+                } else if (remaining.decrementAndGet() == 0 && promise.trySuccess(null)) {
+                    onBindSuccess(address);
+                }
+            }
+        };
+        for (int i = 0; i < acceptors; i++) {
+            final ChannelFuture bind = reusePort.bind(address);
+            serverChannels.add(bind.channel());
+            binds.add(bind);
+        }
+        // Listen only once all binds are started, so that a failure can close all of them
+        for (ChannelFuture bind : binds) {
+            bind.addListener(listener);
+        }
+        return promise;
+    }
+
+    private ServerBootstrap getBootstrap(SocketAddress address) {
+        if (!(address instanceof DomainSocketAddress)) {
+            return bootstrap;
+        }
+        if (domainBootstrap == null) {
+            throw new IllegalArgumentException("Unix domain sockets require the epoll transport, not " + transport);
+        }
+        return domainBootstrap;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Sets whether messages are handed over without encoding on the {@link Transport#LOCAL} transport. Both the server and its clients must use
+     * the same message classes. Must be set before binding.
+     *
+     * @param messagePassthrough whether to pass messages through
+     * @see BasicChannelInitializer#setMessagePassthrough(boolean)
+     */
+    public void setMessagePassthrough(boolean messagePassthrough) {
+        initializer.setMessagePassthrough(messagePassthrough);
+    }
+
+    /**
+     * Enables multiplexing of messages onto logical streams, see {@link StreamedMessage}. The clients must enable it too. Must be set before binding.
+     *
+     * @param fragmentSize the maximum size of a fragment
+     * @param maxMessageSize the maximum size of a received message
+     * @param weights the weight of each stream, by stream id
+     * @see BasicChannelInitializer#setMultiplexing(int, int, int...)
+     */
+    public void setMultiplexing(int fragmentSize, int maxMessageSize, int... weights) {
+        initializer.setMultiplexing(fragmentSize, maxMessageSize, weights);
+    }
+
+    /**
+     * Sets whether messages of a {@link StreamingCodec} are written in chunks as the channel can take them. Must be set before binding.
+     *
+     * @param streaming whether to stream messages out
+     * @see BasicChannelInitializer#setStreaming(boolean)
+     */
+    public void setStreaming(boolean streaming) {
+        initializer.setStreaming(streaming);
+    }
+
+    /**
+     * Sets the longest frame that is buffered before it is decoded. Must be set before binding.
+     *
+     * @param maxFrameLength the maximum frame length in bytes
+     * @see BasicChannelInitializer#setMaxFrameLength(int)
+     */
+    public void setMaxFrameLength(int maxFrameLength) {
+        initializer.setMaxFrameLength(maxFrameLength);
+    }
+
+    /**
+     * Sets the write buffer watermarks of the connections, past which their sessions become unwritable. Must be set before binding.
+     *
+     * @param low the low watermark in bytes
+     * @param high the high watermark in bytes
+     * @see BasicChannelInitializer#setWriteBufferWatermarks(int, int)
+     */
+    public void setWriteBufferWatermarks(int low, int high) {
+        initializer.setWriteBufferWatermarks(low, high);
+    }
+
+    /**
+     * Sets whether the messages decoded from one read are passed to the session together. Must be set before binding.
+     *
+     * @param batchInbound whether to batch inbound messages
+     * @see BasicChannelInitializer#setBatchInbound(boolean)
+     */
+    public void setBatchInbound(boolean batchInbound) {
+        initializer.setBatchInbound(batchInbound);
+    }
+
+    /**
+     * Sets a {@link ChannelOption} of the server channel, applied when binding.
+     *
+     * @param option the option
+     * @param value the value, or null to remove the option
+     */
+    public <T> void option(ChannelOption<T> option, T value) {
+        bootstrap.option(option, value);
+        if (domainBootstrap != null) {
+            domainBootstrap.option(option, value);
+        }
+    }
+
+    /**
+     * Sets a {@link ChannelOption} of the channels accepted by the server, applied when they are accepted.
+     *
+     * @param option the option
+     * @param value the value, or null to remove the option
+     */
+    public <T> void childOption(ChannelOption<T> option, T value) {
+        bootstrap.childOption(option, value);
+        if (domainBootstrap != null) {
+            domainBootstrap.childOption(option, value);
+        }
+    }
+
     /**
      * Called when a bind is successfully made.
      * @param address The address we are now bound too.
@@ -84,7 +340,11 @@ public abstract class NetworkServer implements ConnectionManager {
 
     @Override
     public void shutdown() {
-        workerGroup.shutdownGracefully();
-        bossGroup.shutdownGracefully();
+        serverChannels.close();
+        childChannels.close();
+        if (ownsGroups) {
+            workerGroup.shutdownGracefully();
+            bossGroup.shutdownGracefully();
+        }
     }
 }
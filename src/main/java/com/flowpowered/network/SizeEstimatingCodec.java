@@ -0,0 +1,38 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network;
+
+/**
+ * A {@link Codec} which can estimate how many bytes a {@link Message} will take once encoded. The estimate is used as the initial capacity of the
+ * buffer the message is encoded into; codecs which don't implement this interface get a size learned from previously encoded messages instead.
+ */
+public interface SizeEstimatingCodec<T extends Message> extends Codec<T> {
+    /**
+     * Estimates the encoded size of a {@link Message}. The estimate doesn't need to be exact, but should rather be slightly over than under.
+     *
+     * @param message the message that will be encoded
+     * @return the estimated size in bytes, or 0 if unknown
+     */
+    int estimateSize(T message);
+}
@@ -0,0 +1,93 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.stream.ChunkedInput;
+
+/**
+ * A {@link Codec} for large messages, which can encode a message as a sequence of chunks and decode it incrementally as the chunks arrive, so that
+ * the whole message never has to be held in one buffer.
+ * <br/>
+ * Messages are streamed out when the protocol is a {@link com.flowpowered.network.protocol.ReservedHeaderProtocol}, whose header only needs the
+ * length of the message, and the pipeline has a {@link io.netty.handler.stream.ChunkedWriteHandler} in front of the encoder. They are streamed in
+ * when the protocol is a {@link com.flowpowered.network.protocol.FramedProtocol}, which tells the length of a message from its header. Otherwise,
+ * the regular {@link #encode(ByteBuf, Message)} and {@link #decode(ByteBuf)} methods are used.
+ */
+public interface StreamingCodec<T extends Message> extends Codec<T> {
+    /**
+     * Gets the encoded length of a message.
+     *
+     * @param message the message
+     * @return the length in bytes of the chunks of the message, all together
+     */
+    int getLength(T message);
+
+    /**
+     * Creates the chunks of a message. Netty's {@link io.netty.handler.stream.ChunkedStream} or {@link io.netty.handler.stream.ChunkedNioFile}
+     * can be used for messages backed by a stream or a file. The chunks must add up to exactly {@link #getLength(Message)} bytes.
+     *
+     * @param message the message
+     * @return the chunks
+     * @throws IOException if the chunks can't be created
+     */
+    ChunkedInput<ByteBuf> newChunkedInput(T message) throws IOException;
+
+    /**
+     * Creates a decoder for the chunks of a message.
+     *
+     * @param length the length in bytes of the chunks of the message, all together
+     * @return the decoder
+     * @throws IOException if the message can't be decoded
+     */
+    ChunkDecoder<T> newChunkDecoder(int length) throws IOException;
+
+    /**
+     * Decodes a message from chunks as they arrive.
+     */
+    public static interface ChunkDecoder<T extends Message> {
+        /**
+         * Decodes a chunk. The chunk is only valid during this call.
+         *
+         * @param chunk the chunk
+         * @throws IOException if the chunk can't be decoded
+         */
+        void decodeChunk(ByteBuf chunk) throws IOException;
+
+        /**
+         * Completes the message, once every chunk was decoded.
+         *
+         * @return the message
+         * @throws IOException if the message can't be decoded
+         */
+        T finish() throws IOException;
+
+        /**
+         * Abandons the message, after a failure or if the channel closes before it is complete. Any resource held for it should be released.
+         */
+        void abort();
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network;
+
+import java.util.concurrent.ThreadFactory;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.MultithreadEventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalEventLoopGroup;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.internal.PlatformDependent;
+
+/**
+ * The Netty transports a {@link NetworkServer} or {@link NetworkClient} can run on.
+ * <br/>
+ * {@link #EPOLL} is Netty's native transport for Linux. It supports the options of {@link io.netty.channel.epoll.EpollChannelOption}, such as
+ * {@code SO_REUSEPORT} and {@code EPOLL_MODE} for edge or level triggering, which can be set through the server and client option methods.
+ */
+public enum Transport {
+    /**
+     * The Java NIO transport, available everywhere.
+     */
+    NIO {
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory, int ioRatio) {
+            final NioEventLoopGroup group = new NioEventLoopGroup(threads, threadFactory);
+            group.setIoRatio(ioRatio);
+            return group;
+        }
+
+        @Override
+        public boolean isCompatible(EventLoopGroup group) {
+            return group instanceof NioEventLoopGroup;
+        }
+
+        @Override
+        public Class<? extends ServerChannel> getServerChannelClass() {
+            return NioServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends Channel> getChannelClass() {
+            return NioSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends DatagramChannel> getDatagramChannelClass() {
+            return NioDatagramChannel.class;
+        }
+    },
+    /**
+     * The native epoll transport, available on Linux when Netty's native library can be loaded.
+     */
+    EPOLL {
+        @Override
+        public boolean isAvailable() {
+            // The event loops of this version of the transport allocate native memory through Unsafe
+            return Epoll.isAvailable() && PlatformDependent.hasUnsafe();
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory, int ioRatio) {
+            final EpollEventLoopGroup group = new EpollEventLoopGroup(threads, threadFactory);
+            group.setIoRatio(ioRatio);
+            return group;
+        }
+
+        @Override
+        public boolean isCompatible(EventLoopGroup group) {
+            return group instanceof EpollEventLoopGroup;
+        }
+
+        @Override
+        public Class<? extends ServerChannel> getServerChannelClass() {
+            return EpollServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends Channel> getChannelClass() {
+            return EpollSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends DatagramChannel> getDatagramChannelClass() {
+            return EpollDatagramChannel.class;
+        }
+    },
+    /**
+     * Netty's in-VM transport, connecting a client and a server in the same process through a {@link io.netty.channel.local.LocalAddress} without
+     * any socket. Its channels can also run on the event loops of the other transports.
+     */
+    LOCAL {
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory, int ioRatio) {
+            // There is no I/O to balance with other tasks
+            return new LocalEventLoopGroup(threads, threadFactory);
+        }
+
+        @Override
+        public boolean isCompatible(EventLoopGroup group) {
+            return group instanceof MultithreadEventLoopGroup;
+        }
+
+        @Override
+        public Class<? extends ServerChannel> getServerChannelClass() {
+            return LocalServerChannel.class;
+        }
+
+        @Override
+        public Class<? extends Channel> getChannelClass() {
+            return LocalChannel.class;
+        }
+    };
+
+    /**
+     * The percentage of time event loops spend on I/O rather than on other tasks, unless configured otherwise.
+     */
+    public static final int DEFAULT_IO_RATIO = 50;
+
+    /**
+     * Checks whether this transport can be used on this platform.
+     *
+     * @return true if available
+     */
+    public abstract boolean isAvailable();
+
+    /**
+     * Creates an event loop group for this transport.
+     *
+     * @param threads the number of threads, or 0 for Netty's default
+     * @return the event loop group
+     */
+    public EventLoopGroup newEventLoopGroup(int threads) {
+        return newEventLoopGroup(threads, null, DEFAULT_IO_RATIO);
+    }
+
+    /**
+     * Creates an event loop group for this transport. The thread factory decides the naming, priority and daemon status of the threads, and is the
+     * place to pin them to CPUs where a native affinity library is available.
+     *
+     * @param threads the number of threads, or 0 for Netty's default
+     * @param threadFactory the factory of the threads, or null for Netty's default
+     * @param ioRatio the percentage of time spent on I/O rather than on other tasks, from 1 to 100; ignored by {@link #LOCAL}
+     * @return the event loop group
+     */
+    public abstract EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory, int ioRatio);
+
+    /**
+     * Checks whether the channels of this transport can be registered to an event loop group.
+     *
+     * @param group the event loop group
+     * @return true if compatible
+     */
+    public abstract boolean isCompatible(EventLoopGroup group);
+
+    public abstract Class<? extends ServerChannel> getServerChannelClass();
+
+    public abstract Class<? extends Channel> getChannelClass();
+
+    /**
+     * Gets the class of the datagram channels of this transport.
+     *
+     * @return the datagram channel class
+     * @throws UnsupportedOperationException if the transport has no datagram channels
+     */
+    public Class<? extends DatagramChannel> getDatagramChannelClass() {
+        throw new UnsupportedOperationException("Transport " + this + " has no datagram channels");
+    }
+
+    /**
+     * Gets the best transport available on this platform: {@link #EPOLL} if available, {@link #NIO} otherwise.
+     *
+     * @return the best transport
+     */
+    public static Transport best() {
+        return EPOLL.isAvailable() ? EPOLL : NIO;
+    }
+}
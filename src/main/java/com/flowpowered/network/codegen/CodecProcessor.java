@@ -0,0 +1,569 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.codegen;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.FilerException;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic.Kind;
+
+import com.flowpowered.network.Message;
+import com.flowpowered.network.MessageHandler;
+
+/**
+ * Generates {@link com.flowpowered.network.Codec}s for the classes annotated with {@link GenerateCodec}, and a registry class per package to
+ * register them. See {@link GenerateCodec} for the format of the generated codecs.
+ * <br/>
+ * The processor isn't registered as a service, so that it doesn't run on every compilation which has this library on its class path. Compilations
+ * using it name it explicitly, with {@code javac -processor com.flowpowered.network.codegen.CodecProcessor}, or in Maven with
+ * {@code <annotationProcessors>} in the configuration of the compiler plugin.
+ */
+@SupportedAnnotationTypes("com.flowpowered.network.codegen.GenerateCodec")
+public class CodecProcessor extends AbstractProcessor {
+    private static final String REGISTRY_NAME = "GeneratedCodecRegistry";
+    /**
+     * The registry lines of the generated codecs, by package, waiting for the round in which the registries are written.
+     */
+    private final Map<String, List<String>> registrations = new TreeMap<>();
+    private Types types;
+    private Elements elements;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        types = processingEnv.getTypeUtils();
+        elements = processingEnv.getElementUtils();
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        final Set<? extends Element> annotated = roundEnv.getElementsAnnotatedWith(GenerateCodec.class);
+        for (Element element : annotated) {
+            if (element.getKind() != ElementKind.CLASS) {
+                error(element, "Only classes can be annotated with @GenerateCodec");
+                continue;
+            }
+            generateCodec((TypeElement) element);
+        }
+        // Write the registries once a round brings no new messages, which is the round after the codecs were generated
+        if ((annotated.isEmpty() || roundEnv.processingOver()) && !registrations.isEmpty()) {
+            for (Map.Entry<String, List<String>> entry : registrations.entrySet()) {
+                writeRegistry(entry.getKey(), entry.getValue());
+            }
+            registrations.clear();
+        }
+        return true;
+    }
+
+    private void generateCodec(TypeElement type) {
+        if (!types.isAssignable(type.asType(), elements.getTypeElement(Message.class.getCanonicalName()).asType())) {
+            error(type, "@GenerateCodec classes must implement Message");
+            return;
+        }
+        if (type.getModifiers().contains(Modifier.ABSTRACT) || !type.getTypeParameters().isEmpty()) {
+            error(type, "@GenerateCodec classes can be neither abstract nor generic");
+            return;
+        }
+        if (type.getNestingKind() != NestingKind.TOP_LEVEL && !type.getModifiers().contains(Modifier.STATIC)) {
+            error(type, "Nested @GenerateCodec classes must be static");
+            return;
+        }
+
+        final List<VariableElement> fields = new ArrayList<>();
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            final Set<Modifier> modifiers = field.getModifiers();
+            if (!modifiers.contains(Modifier.STATIC) && !modifiers.contains(Modifier.TRANSIENT)) {
+                fields.add(field);
+            }
+        }
+        if (!hasConstructor(type, fields)) {
+            error(type, "@GenerateCodec classes need a non-private constructor taking their fields in declaration order");
+            return;
+        }
+
+        final String packageName = elements.getPackageOf(type).getQualifiedName().toString();
+        final String codecName = getCodecName(type);
+        final String messageName = type.getQualifiedName().toString();
+
+        final Code write = new Code("        ");
+        for (VariableElement field : fields) {
+            final String accessor = getAccessor(type, field);
+            if (accessor == null) {
+                error(field, "Private fields of @GenerateCodec classes need a non-private getter");
+                return;
+            }
+            if (!write(write, field.asType(), "$message." + accessor, isVarInt(field), field)) {
+                return;
+            }
+        }
+
+        final Code read = new Code("        ");
+        final StringBuilder arguments = new StringBuilder();
+        for (VariableElement field : fields) {
+            final String value = read(read, field.asType(), isVarInt(field), field);
+            if (value == null) {
+                return;
+            }
+            // Read every field into a local first, so that the fields are read in order
+            final String local = read.temp(field.getSimpleName().toString());
+            read.line("final " + field.asType() + " " + local + " = " + value + ";");
+            if (arguments.length() > 0) {
+                arguments.append(", ");
+            }
+            arguments.append(local);
+        }
+
+        final StringBuilder source = new StringBuilder();
+        appendPackage(source, packageName);
+        source.append("import java.io.IOException;\n");
+        source.append("import java.util.ArrayList;\n\n");
+        source.append("import io.netty.buffer.ByteBuf;\n\n");
+        source.append("import com.flowpowered.network.Codec;\n");
+        source.append("import com.flowpowered.network.util.ByteBufUtils;\n\n");
+        source.append("/**\n * Generated by {@link ").append(CodecProcessor.class.getName()).append("} from {@link ").append(messageName).append("}.\n */\n");
+        source.append("public final class ").append(codecName).append(" implements Codec<").append(messageName).append("> {\n");
+        source.append("    @Override\n");
+        source.append("    public ").append(messageName).append(" decode(ByteBuf $buf) throws IOException {\n");
+        source.append("        return read($buf);\n");
+        source.append("    }\n\n");
+        source.append("    @Override\n");
+        source.append("    public ByteBuf encode(ByteBuf $buf, ").append(messageName).append(" $message) throws IOException {\n");
+        source.append("        write($buf, $message);\n");
+        source.append("        return $buf;\n");
+        source.append("    }\n\n");
+        source.append("    public static ").append(messageName).append(" read(ByteBuf $buf) throws IOException {\n");
+        source.append(read.out);
+        source.append("        return new ").append(messageName).append("(").append(arguments).append(");\n");
+        source.append("    }\n\n");
+        source.append("    public static void write(ByteBuf $buf, ").append(messageName).append(" $message) throws IOException {\n");
+        source.append(write.out);
+        source.append("    }\n");
+        source.append("}\n");
+        if (!writeSource(qualify(packageName, codecName), source, type)) {
+            return;
+        }
+
+        final GenerateCodec annotation = type.getAnnotation(GenerateCodec.class);
+        final TypeMirror handler = getHandler(type);
+        final StringBuilder registration = new StringBuilder("        protocol.registerMessage(");
+        registration.append(messageName).append(".class, ").append(codecName).append(".class, ");
+        registration.append(handler == null ? "null" : types.erasure(handler) + ".class").append(", ");
+        registration.append(annotation.opcode() < 0 ? "null" : Integer.toString(annotation.opcode())).append(");\n");
+        List<String> lines = registrations.get(packageName);
+        if (lines == null) {
+            registrations.put(packageName, lines = new ArrayList<>());
+        }
+        lines.add(registration.toString());
+    }
+
+    private void writeRegistry(String packageName, List<String> lines) {
+        final StringBuilder source = new StringBuilder();
+        appendPackage(source, packageName);
+        source.append("import com.flowpowered.network.protocol.simple.SimpleProtocol;\n\n");
+        source.append("/**\n * Generated by {@link ").append(CodecProcessor.class.getName()).append("}. Registers the generated codecs of this package.\n */\n");
+        source.append("public final class ").append(REGISTRY_NAME).append(" {\n");
+        source.append("    private ").append(REGISTRY_NAME).append("() {\n");
+        source.append("    }\n\n");
+        source.append("    public static void registerMessages(SimpleProtocol protocol) {\n");
+        for (String line : lines) {
+            source.append(line);
+        }
+        source.append("    }\n");
+        source.append("}\n");
+        writeSource(qualify(packageName, REGISTRY_NAME), source);
+    }
+
+    private boolean write(Code code, TypeMirror type, String value, boolean varInt, Element field) {
+        switch (type.getKind()) {
+            case BOOLEAN:
+                code.line("$buf.writeBoolean(" + value + ");");
+                return true;
+            case BYTE:
+                code.line("$buf.writeByte(" + value + ");");
+                return true;
+            case SHORT:
+                code.line("$buf.writeShort(" + value + ");");
+                return true;
+            case CHAR:
+                code.line("$buf.writeChar(" + value + ");");
+                return true;
+            case INT:
+                code.line(varInt ? "ByteBufUtils.writeVarInt($buf, " + value + ");" : "$buf.writeInt(" + value + ");");
+                return true;
+            case LONG:
+                code.line(varInt ? "ByteBufUtils.writeVarLong($buf, " + value + ");" : "$buf.writeLong(" + value + ");");
+                return true;
+            case FLOAT:
+                code.line("$buf.writeFloat(" + value + ");");
+                return true;
+            case DOUBLE:
+                code.line("$buf.writeDouble(" + value + ");");
+                return true;
+            case ARRAY:
+                if (((ArrayType) type).getComponentType().getKind() == TypeKind.BYTE) {
+                    final String bytes = code.temp("bytes");
+                    code.line("final byte[] " + bytes + " = " + value + ";");
+                    code.line("ByteBufUtils.writeVarInt($buf, " + bytes + ".length);");
+                    code.line("$buf.writeBytes(" + bytes + ");");
+                    return true;
+                }
+                break;
+            case DECLARED:
+                if (isString(type)) {
+                    code.line("ByteBufUtils.writeUTF8($buf, " + value + ");");
+                    return true;
+                }
+                if (isBoxed(type)) {
+                    return write(code, types.unboxedType(type), value, varInt, field);
+                }
+                if (isEnum(type)) {
+                    code.line("ByteBufUtils.writeVarInt($buf, " + value + ".ordinal());");
+                    return true;
+                }
+                if (isList(type)) {
+                    final TypeMirror element = getListElement(type, field);
+                    if (element == null) {
+                        return false;
+                    }
+                    final String list = code.temp("list");
+                    final String item = code.temp("item");
+                    code.line("final " + type + " " + list + " = " + value + ";");
+                    code.line("ByteBufUtils.writeVarInt($buf, " + list + ".size());");
+                    code.line("for (" + element + " " + item + " : " + list + ") {");
+                    code.indent();
+                    final boolean written = write(code, element, item, varInt, field);
+                    code.outdent();
+                    code.line("}");
+                    return written;
+                }
+                if (isGenerated(type)) {
+                    code.line(getCodecReference(type) + ".write($buf, " + value + ");");
+                    return true;
+                }
+                break;
+            default:
+                break;
+        }
+        error(field, "Unsupported type for a @GenerateCodec field: " + type);
+        return false;
+    }
+
+    private String read(Code code, TypeMirror type, boolean varInt, Element field) {
+        switch (type.getKind()) {
+            case BOOLEAN:
+                return "$buf.readBoolean()";
+            case BYTE:
+                return "$buf.readByte()";
+            case SHORT:
+                return "$buf.readShort()";
+            case CHAR:
+                return "$buf.readChar()";
+            case INT:
+                return varInt ? "ByteBufUtils.readVarInt($buf)" : "$buf.readInt()";
+            case LONG:
+                return varInt ? "ByteBufUtils.readVarLong($buf)" : "$buf.readLong()";
+            case FLOAT:
+                return "$buf.readFloat()";
+            case DOUBLE:
+                return "$buf.readDouble()";
+            case ARRAY:
+                if (((ArrayType) type).getComponentType().getKind() == TypeKind.BYTE) {
+                    final String length = code.temp("length");
+                    final String bytes = code.temp("bytes");
+                    code.line("final int " + length + " = ByteBufUtils.readVarInt($buf);");
+                    code.line("if (" + length + " < 0) {");
+                    code.line("    throw new IOException(\"Negative array length: \" + " + length + ");");
+                    code.line("}");
+                    code.line("if (" + length + " > $buf.readableBytes()) {");
+                    code.line("    throw new IndexOutOfBoundsException(\"Not enough readable bytes for an array of length \" + " + length + ");");
+                    code.line("}");
+                    code.line("final byte[] " + bytes + " = new byte[" + length + "];");
+                    code.line("$buf.readBytes(" + bytes + ");");
+                    return bytes;
+                }
+                break;
+            case DECLARED:
+                if (isString(type)) {
+                    return "ByteBufUtils.readUTF8($buf)";
+                }
+                if (isBoxed(type)) {
+                    return read(code, types.unboxedType(type), varInt, field);
+                }
+                if (isEnum(type)) {
+                    final String ordinal = code.temp("ordinal");
+                    final String values = code.temp("values");
+                    code.line("final int " + ordinal + " = ByteBufUtils.readVarInt($buf);");
+                    code.line("final " + type + "[] " + values + " = " + type + ".values();");
+                    code.line("if (" + ordinal + " < 0 || " + ordinal + " >= " + values + ".length) {");
+                    code.line("    throw new IOException(\"Invalid ordinal for " + type + ": \" + " + ordinal + ");");
+                    code.line("}");
+                    return values + "[" + ordinal + "]";
+                }
+                if (isList(type)) {
+                    final TypeMirror element = getListElement(type, field);
+                    if (element == null) {
+                        return null;
+                    }
+                    final String size = code.temp("size");
+                    final String list = code.temp("list");
+                    final String index = code.temp("i");
+                    code.line("final int " + size + " = ByteBufUtils.readVarInt($buf);");
+                    code.line("if (" + size + " < 0) {");
+                    code.line("    throw new IOException(\"Negative list size: \" + " + size + ");");
+                    code.line("}");
+                    // Don't trust the size for the capacity, it could be made large enough to exhaust memory
+                    code.line("final " + type + " " + list + " = new ArrayList<>(Math.min(" + size + ", $buf.readableBytes()));");
+                    code.line("for (int " + index + " = 0; " + index + " < " + size + "; " + index + "++) {");
+                    code.indent();
+                    final String item = read(code, element, varInt, field);
+                    if (item != null) {
+                        code.line(list + ".add(" + item + ");");
+                    }
+                    code.outdent();
+                    code.line("}");
+                    return item == null ? null : list;
+                }
+                if (isGenerated(type)) {
+                    return getCodecReference(type) + ".read($buf)";
+                }
+                break;
+            default:
+                break;
+        }
+        error(field, "Unsupported type for a @GenerateCodec field: " + type);
+        return null;
+    }
+
+    private boolean hasConstructor(TypeElement type, List<VariableElement> fields) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                continue;
+            }
+            final List<? extends VariableElement> parameters = constructor.getParameters();
+            if (parameters.size() != fields.size()) {
+                continue;
+            }
+            boolean matches = true;
+            for (int i = 0; i < fields.size() && matches; i++) {
+                matches = types.isSameType(parameters.get(i).asType(), fields.get(i).asType());
+            }
+            if (matches) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String getAccessor(TypeElement type, VariableElement field) {
+        final String name = field.getSimpleName().toString();
+        if (!field.getModifiers().contains(Modifier.PRIVATE)) {
+            return name;
+        }
+        final String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers(type))) {
+            final Set<Modifier> modifiers = method.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.STATIC) || !method.getParameters().isEmpty()
+                    || !types.isSameType(method.getReturnType(), field.asType())) {
+                continue;
+            }
+            final String methodName = method.getSimpleName().toString();
+            if (methodName.equals("get" + capitalized) || methodName.equals("is" + capitalized) || methodName.equals(name)) {
+                return methodName + "()";
+            }
+        }
+        return null;
+    }
+
+    private TypeMirror getHandler(TypeElement type) {
+        for (AnnotationMirror mirror : type.getAnnotationMirrors()) {
+            if (!((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(GenerateCodec.class.getCanonicalName())) {
+                continue;
+            }
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues().entrySet()) {
+                if (entry.getKey().getSimpleName().contentEquals("handler")) {
+                    final TypeMirror handler = (TypeMirror) entry.getValue().getValue();
+                    final TypeMirror none = elements.getTypeElement(MessageHandler.class.getCanonicalName()).asType();
+                    return types.isSameType(types.erasure(handler), types.erasure(none)) ? null : handler;
+                }
+            }
+        }
+        return null;
+    }
+
+    private TypeMirror getListElement(TypeMirror type, Element field) {
+        final List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+        if (arguments.size() != 1 || arguments.get(0).getKind() != TypeKind.DECLARED) {
+            error(field, "Lists in @GenerateCodec classes need a concrete element type: " + type);
+            return null;
+        }
+        return arguments.get(0);
+    }
+
+    private boolean isVarInt(VariableElement field) {
+        return field.getAnnotation(VarInt.class) != null;
+    }
+
+    private boolean isString(TypeMirror type) {
+        return isType(type, String.class.getCanonicalName());
+    }
+
+    private boolean isList(TypeMirror type) {
+        return isType(type, List.class.getCanonicalName());
+    }
+
+    private boolean isType(TypeMirror type, String name) {
+        return ((TypeElement) types.asElement(type)).getQualifiedName().contentEquals(name);
+    }
+
+    private boolean isBoxed(TypeMirror type) {
+        try {
+            types.unboxedType(type);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private boolean isEnum(TypeMirror type) {
+        return types.asElement(type).getKind() == ElementKind.ENUM;
+    }
+
+    private boolean isGenerated(TypeMirror type) {
+        return types.asElement(type).getAnnotation(GenerateCodec.class) != null;
+    }
+
+    private String getCodecName(TypeElement type) {
+        final String packageName = elements.getPackageOf(type).getQualifiedName().toString();
+        String name = elements.getBinaryName(type).toString();
+        if (!packageName.isEmpty()) {
+            name = name.substring(packageName.length() + 1);
+        }
+        return name.replace('$', '_') + "Codec";
+    }
+
+    private String getCodecReference(TypeMirror type) {
+        final TypeElement element = (TypeElement) types.asElement(type);
+        return qualify(elements.getPackageOf(element).getQualifiedName().toString(), getCodecName(element));
+    }
+
+    private static String qualify(String packageName, String name) {
+        return packageName.isEmpty() ? name : packageName + "." + name;
+    }
+
+    private static void appendPackage(StringBuilder source, String packageName) {
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+    }
+
+    /**
+     * Writes a generated source file, unless the type already exists. Incremental builds compile the sources generated by the last build along
+     * with the others, and a type can't be created twice, so these are kept as they are until a clean build.
+     *
+     * @param name the qualified name of the type
+     * @param source the source
+     * @param originatingElements the elements the type is generated from
+     * @return whether the type exists
+     */
+    private boolean writeSource(String name, CharSequence source, Element... originatingElements) {
+        if (elements.getTypeElement(name) != null) {
+            return true;
+        }
+        try (Writer writer = processingEnv.getFiler().createSourceFile(name, originatingElements).openWriter()) {
+            writer.append(source);
+            return true;
+        } catch (FilerException e) {
+            // Already created by this compilation
+            return true;
+        } catch (IOException e) {
+            error(originatingElements.length > 0 ? originatingElements[0] : null, "Could not write " + name + ": " + e);
+            return false;
+        }
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Kind.ERROR, message, element);
+    }
+
+    /**
+     * The body of a generated method, with unique names for temporary variables.
+     */
+    private static class Code {
+        private final StringBuilder out = new StringBuilder();
+        private String indent;
+        private int temps = 0;
+
+        private Code(String indent) {
+            this.indent = indent;
+        }
+
+        private void line(String line) {
+            out.append(indent).append(line).append('\n');
+        }
+
+        private void indent() {
+            indent += "    ";
+        }
+
+        private void outdent() {
+            indent = indent.substring(4);
+        }
+
+        private String temp(String name) {
+            return "$" + name + temps++;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.codegen;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import com.flowpowered.network.Codec;
+import com.flowpowered.network.Message;
+import com.flowpowered.network.MessageHandler;
+
+/**
+ * Marks a {@link Message} class for which a {@link Codec} is generated at compile time by the {@link CodecProcessor}.
+ * <br/>
+ * The codec is named after the message, with {@code Codec} appended, and placed in the same package. It writes the non-static, non-transient
+ * fields of the message in declaration order, and decodes them by calling a constructor taking those fields in the same order. Private fields are
+ * read through a {@code getX()}, {@code isX()} or {@code x()} method. The supported field types are:
+ * <ul>
+ * <li>primitives, with {@code int} and {@code long} written as varints when annotated with {@link VarInt}</li>
+ * <li>{@link String}, written with {@link com.flowpowered.network.util.ByteBufUtils#writeUTF8}</li>
+ * <li>{@code byte[]} and enums</li>
+ * <li>other classes annotated with {@code GenerateCodec}, written inline</li>
+ * <li>{@link java.util.List}s of any of the above, including boxed primitives and other lists</li>
+ * </ul>
+ * Fields must not be null. For every package containing annotated messages, a {@code GeneratedCodecRegistry} class is also generated, which
+ * registers them with a {@link com.flowpowered.network.protocol.simple.SimpleProtocol}.
+ */
+@Documented
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.CLASS)
+public @interface GenerateCodec {
+    /**
+     * The opcode to register the message with, or -1 to have one assigned dynamically.
+     *
+     * @return the opcode
+     */
+    int opcode() default -1;
+
+    /**
+     * The handler to register the message with. {@link MessageHandler} itself means no handler.
+     *
+     * @return the handler class
+     */
+    @SuppressWarnings("rawtypes")
+    Class<? extends MessageHandler> handler() default MessageHandler.class;
+}
@@ -0,0 +1,426 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.datagram;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import com.flowpowered.network.Transport;
+
+/**
+ * A datagram channel exchanging messages with any number of remote addresses, each through its own {@link DatagramSession}.
+ * <br/>
+ * Sessions are opened with {@link #connect(InetSocketAddress)}, or when a datagram arrives from an unknown address if the endpoint
+ * {@link #setAcceptingSessions(boolean) accepts sessions}, as a server would. A session that receives nothing for the session timeout is closed. The
+ * endpoint periodically retransmits unacknowledged reliable messages and sends pending acknowledgements.
+ * <br/>
+ * Sessions are accepted without any handshake, and the source address of a datagram can be spoofed, so anyone can open sessions with an endpoint
+ * which accepts them. Each of them is kept until the session timeout, so the number of sessions accepted is limited by
+ * {@link #setMaxAcceptedSessions(int)}. Protocols should have the remote end prove itself, and disconnect the sessions which don't.
+ */
+public abstract class DatagramEndpoint {
+    /**
+     * The default maximum size of a datagram, small enough to avoid IP fragmentation on most paths
+     */
+    public static final int DEFAULT_MAX_PACKET_SIZE = 1200;
+    /**
+     * The default maximum number of sessions for a datagram from an unknown address to open another
+     */
+    public static final int DEFAULT_MAX_ACCEPTED_SESSIONS = 1024;
+    /**
+     * How often sessions are checked for retransmissions and timeouts, in milliseconds
+     */
+    private static final long TICK_INTERVAL = 20;
+    private final Bootstrap bootstrap = new Bootstrap();
+    private final Transport transport;
+    private final EventLoopGroup group;
+    private final boolean ownsGroup;
+    private volatile Channel channel;
+    private final ConcurrentMap<InetSocketAddress, DatagramSession> sessions = new ConcurrentHashMap<>();
+    private volatile boolean acceptingSessions = true;
+    private volatile int maxAcceptedSessions = DEFAULT_MAX_ACCEPTED_SESSIONS;
+    private volatile int maxPacketSize = DEFAULT_MAX_PACKET_SIZE;
+    private volatile long retransmitTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(200);
+    private volatile long sessionTimeoutNanos = TimeUnit.SECONDS.toNanos(10);
+    private volatile int maxRetransmitPackets = 8;
+    private final Runnable tickTask = new Runnable() {
+        @Override
+        public void run() {
+            final long now = System.nanoTime();
+            for (DatagramSession session : sessions.values()) {
+                session.tick(now);
+            }
+        }
+    };
+
+    /**
+     * Creates an endpoint on the best transport available, see {@link Transport#best()}.
+     */
+    public DatagramEndpoint() {
+        this(Transport.best());
+    }
+
+    /**
+     * Creates an endpoint on the given transport, with its own single threaded event loop group.
+     *
+     * @param transport the transport
+     * @throws IllegalArgumentException if the transport isn't available on this platform, or has no datagram channels
+     */
+    public DatagramEndpoint(Transport transport) {
+        this(transport, checkTransport(transport).newEventLoopGroup(1), true);
+    }
+
+    /**
+     * Creates an endpoint on the given transport, running on an existing event loop group. The group can be shared with servers and clients, and
+     * isn't shut down by {@link #shutdown()}.
+     *
+     * @param transport the transport
+     * @param group the event loop group
+     * @throws IllegalArgumentException if the transport isn't available on this platform or has no datagram channels, or the group isn't
+     * compatible with it
+     */
+    public DatagramEndpoint(Transport transport, EventLoopGroup group) {
+        this(transport, group, false);
+    }
+
+    private DatagramEndpoint(Transport transport, EventLoopGroup group, boolean ownsGroup) {
+        checkTransport(transport);
+        if (!transport.isCompatible(group)) {
+            throw new IllegalArgumentException("Event loop group is not compatible with transport " + transport);
+        }
+        this.transport = transport;
+        this.group = group;
+        this.ownsGroup = ownsGroup;
+        bootstrap
+            .group(group)
+            .channel(transport.getDatagramChannelClass())
+            .handler(new PacketHandler());
+    }
+
+    private static Transport checkTransport(Transport transport) {
+        if (!transport.isAvailable()) {
+            throw new IllegalArgumentException("Transport " + transport + " is not available");
+        }
+        if (transport == Transport.LOCAL) {
+            throw new IllegalArgumentException("Transport " + transport + " has no datagram channels");
+        }
+        return transport;
+    }
+
+    /**
+     * Binds the datagram channel. An endpoint can only be bound once.
+     *
+     * @param address the local address, with port 0 to pick any
+     * @return the future of the bind
+     * @throws IllegalStateException if the endpoint is already bound
+     */
+    public synchronized ChannelFuture bind(final SocketAddress address) {
+        if (channel != null) {
+            throw new IllegalStateException("Datagram endpoint is already bound");
+        }
+        final ChannelFuture bind = bootstrap.bind(address);
+        channel = bind.channel();
+        return bind.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture f) throws Exception {
+                if (f.isSuccess()) {
+                    final ScheduledFuture<?> tick = f.channel().eventLoop().scheduleAtFixedRate(tickTask, TICK_INTERVAL, TICK_INTERVAL, TimeUnit.MILLISECONDS);
+                    f.channel().closeFuture().addListener(new ChannelFutureListener() {
+                        @Override
+                        public void operationComplete(ChannelFuture future) throws Exception {
+                            tick.cancel(false);
+                        }
+                    });
+                    onBindSuccess(address);
+                } else {
+                    onBindFailure(address, f.cause());
+                }
+            }
+        });
+    }
+
+    /**
+     * Opens a session with a remote address, or gets the session already open with it.
+     *
+     * @param address the remote address
+     * @return the session
+     * @throws IllegalStateException if the endpoint isn't bound
+     */
+    public DatagramSession connect(InetSocketAddress address) {
+        if (channel == null) {
+            throw new IllegalStateException("Datagram endpoint must be bound before connecting");
+        }
+        return openSession(address);
+    }
+
+    private DatagramSession openSession(InetSocketAddress address) {
+        DatagramSession session = sessions.get(address);
+        if (session != null) {
+            return session;
+        }
+        final DatagramSession created = newSession(address);
+        session = sessions.putIfAbsent(address, created);
+        if (session != null) {
+            return session;
+        }
+        created.onReady();
+        return created;
+    }
+
+    /**
+     * Closes a session. Nothing is sent to the remote address.
+     *
+     * @param session the session
+     */
+    void closeSession(final DatagramSession session) {
+        if (!channel.eventLoop().inEventLoop()) {
+            channel.eventLoop().execute(new Runnable() {
+                @Override
+                public void run() {
+                    closeSession(session);
+                }
+            });
+            return;
+        }
+        if (sessions.remove(session.getAddress(), session)) {
+            session.close();
+            session.onDisconnect();
+            sessionInactivated(session);
+        }
+    }
+
+    /**
+     * Gets the session open with a remote address.
+     *
+     * @param address the remote address
+     * @return the session, or null if none is open
+     */
+    public DatagramSession getSession(InetSocketAddress address) {
+        return sessions.get(address);
+    }
+
+    /**
+     * Gets the datagram channel, once bound.
+     *
+     * @return the channel, or null if not bound
+     */
+    public Channel getChannel() {
+        return channel;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public boolean isAcceptingSessions() {
+        return acceptingSessions;
+    }
+
+    /**
+     * Sets whether a session is opened when a datagram arrives from an unknown address. Otherwise, such datagrams are dropped. Enabled by default.
+     * Endpoints which only {@link #connect(InetSocketAddress) connect}, as clients do, should disable it, since anyone can open a session otherwise.
+     *
+     * @param acceptingSessions whether to accept sessions
+     */
+    public void setAcceptingSessions(boolean acceptingSessions) {
+        this.acceptingSessions = acceptingSessions;
+    }
+
+    public int getMaxAcceptedSessions() {
+        return maxAcceptedSessions;
+    }
+
+    /**
+     * Sets the maximum number of sessions open for a datagram from an unknown address to open another. Datagrams from unknown addresses are
+     * dropped while there are that many sessions. Sessions opened with {@link #connect(InetSocketAddress)} count, but aren't limited.
+     * {@link #DEFAULT_MAX_ACCEPTED_SESSIONS} by default.
+     *
+     * @param maxAcceptedSessions the maximum number of sessions
+     */
+    public void setMaxAcceptedSessions(int maxAcceptedSessions) {
+        if (maxAcceptedSessions <= 0) {
+            throw new IllegalArgumentException("Max accepted sessions must be positive: " + maxAcceptedSessions);
+        }
+        this.maxAcceptedSessions = maxAcceptedSessions;
+    }
+
+    public int getMaxPacketSize() {
+        return maxPacketSize;
+    }
+
+    /**
+     * Sets the maximum size of the datagrams sent. Both ends should use the same size. {@link #DEFAULT_MAX_PACKET_SIZE} by default.
+     *
+     * @param maxPacketSize the maximum size in bytes
+     */
+    public void setMaxPacketSize(int maxPacketSize) {
+        if (maxPacketSize < 64 || maxPacketSize > 65507) {
+            throw new IllegalArgumentException("Max packet size must be between 64 and 65507: " + maxPacketSize);
+        }
+        this.maxPacketSize = maxPacketSize;
+    }
+
+    long getRetransmitTimeoutNanos() {
+        return retransmitTimeoutNanos;
+    }
+
+    /**
+     * Sets how long a reliable message waits for its acknowledgement before being sent again. 200 milliseconds by default.
+     *
+     * @param time the timeout
+     * @param unit the unit of the timeout
+     */
+    public void setRetransmitTimeout(long time, TimeUnit unit) {
+        if (time <= 0) {
+            throw new IllegalArgumentException("Retransmit timeout must be positive: " + time);
+        }
+        this.retransmitTimeoutNanos = unit.toNanos(time);
+    }
+
+    public int getMaxRetransmitPackets() {
+        return maxRetransmitPackets;
+    }
+
+    /**
+     * Sets how many datagrams' worth of reliable messages a session retransmits at most every tick, so that a session with many messages waiting
+     * for their acknowledgement doesn't flood the network. 8 by default.
+     *
+     * @param maxRetransmitPackets the maximum number of datagrams
+     */
+    public void setMaxRetransmitPackets(int maxRetransmitPackets) {
+        if (maxRetransmitPackets <= 0) {
+            throw new IllegalArgumentException("Max retransmit packets must be positive: " + maxRetransmitPackets);
+        }
+        this.maxRetransmitPackets = maxRetransmitPackets;
+    }
+
+    long getSessionTimeoutNanos() {
+        return sessionTimeoutNanos;
+    }
+
+    /**
+     * Sets how long a session can receive nothing before it is closed. 10 seconds by default.
+     *
+     * @param time the timeout
+     * @param unit the unit of the timeout
+     */
+    public void setSessionTimeout(long time, TimeUnit unit) {
+        if (time <= 0) {
+            throw new IllegalArgumentException("Session timeout must be positive: " + time);
+        }
+        this.sessionTimeoutNanos = unit.toNanos(time);
+    }
+
+    /**
+     * Creates a new session with a remote address.
+     *
+     * @param address the remote address
+     * @return the session
+     */
+    public abstract DatagramSession newSession(InetSocketAddress address);
+
+    /**
+     * Called after a session is closed.
+     *
+     * @param session the session
+     */
+    public abstract void sessionInactivated(DatagramSession session);
+
+    /**
+     * Called when the datagram channel is successfully bound.
+     *
+     * @param address the local address
+     */
+    public void onBindSuccess(SocketAddress address) {
+    }
+
+    /**
+     * Called when the datagram channel can't be bound.
+     *
+     * @param address the local address
+     * @param t the cause of the failure; can be null
+     */
+    public void onBindFailure(SocketAddress address, Throwable t) {
+    }
+
+    /**
+     * Called when the datagram channel reports an exception, such as an unreachable port.
+     *
+     * @param throwable the throwable
+     */
+    public void onChannelThrowable(Throwable throwable) {
+    }
+
+    /**
+     * Closes the channel and every session.
+     */
+    public void shutdown() {
+        final Channel channel = this.channel;
+        if (channel != null) {
+            channel.close();
+        }
+        if (ownsGroup) {
+            group.shutdownGracefully();
+        }
+    }
+
+    private class PacketHandler extends SimpleChannelInboundHandler<DatagramPacket> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) {
+            DatagramSession session = sessions.get(packet.sender());
+            if (session == null) {
+                if (!acceptingSessions || sessions.size() >= maxAcceptedSessions) {
+                    return;
+                }
+                session = openSession(packet.sender());
+            }
+            session.packetReceived(packet.content());
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            for (DatagramSession session : sessions.values()) {
+                closeSession(session);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            onChannelThrowable(cause);
+        }
+    }
+}
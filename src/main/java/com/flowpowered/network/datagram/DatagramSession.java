@@ -0,0 +1,482 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.datagram;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.socket.DatagramPacket;
+
+import org.slf4j.Logger;
+
+import com.flowpowered.network.Message;
+import com.flowpowered.network.MessageHandler;
+import com.flowpowered.network.exception.ChannelClosedException;
+import com.flowpowered.network.pipeline.MessageDecoder;
+import com.flowpowered.network.pipeline.MessageEncoder;
+import com.flowpowered.network.processor.MessageProcessor;
+import com.flowpowered.network.protocol.AbstractProtocol;
+import com.flowpowered.network.session.Session;
+import com.flowpowered.network.util.ByteBufUtils;
+
+/**
+ * A {@link Session} with a remote address over the datagram channel of a {@link DatagramEndpoint}.
+ * <br/>
+ * Messages are encoded with the session's protocol, as over a stream, and delivered according to their {@link Delivery}. Messages sent together
+ * are packed into as few datagrams as possible. Each datagram starts with a varint acknowledging every reliable message received so far, followed
+ * by the messages, each as a delivery byte, a varint sequence number for the sequenced deliveries, a varint length and the encoded message.
+ * <br/>
+ * Apart from {@link #send(Delivery, Message)} and {@link #disconnect()}, the state of the session is only touched by the event loop of the endpoint.
+ * Message processors aren't supported.
+ */
+public class DatagramSession implements Session {
+    /**
+     * How far ahead of the next expected reliable message a message can be and still be kept until its turn. It is also the most reliable messages
+     * sent and not acknowledged yet, since the remote end would drop the others.
+     */
+    private static final int RECEIVE_WINDOW = 1024;
+    /**
+     * The maximum size of the acknowledgement at the start of a datagram
+     */
+    private static final int ACK_SIZE = 5;
+    /**
+     * The maximum size of the delivery, sequence number and length in front of a message
+     */
+    private static final int ENTRY_OVERHEAD = 11;
+    private final DatagramEndpoint endpoint;
+    private final InetSocketAddress address;
+    private volatile AbstractProtocol protocol;
+    private volatile boolean active = true;
+    /**
+     * Messages sent since the last flush, written by any thread
+     */
+    private final Queue<Outgoing> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled.set(false);
+            flush(System.nanoTime(), false);
+        }
+    };
+    private int nextSequenced = 0;
+    private int nextReliable = 0;
+    /**
+     * Reliable messages sent and not acknowledged yet, by sequence number
+     */
+    private final Queue<Outgoing> unacknowledged = new ArrayDeque<>();
+    /**
+     * Reliable messages waiting for the acknowledgement of earlier ones to fit in the receive window of the remote end
+     */
+    private final Queue<Outgoing> windowed = new ArrayDeque<>();
+    private int lastSequencedReceived = -1;
+    private int nextReliableExpected = 0;
+    /**
+     * Reliable messages received ahead of their turn, by sequence number
+     */
+    private final Map<Integer, ByteBuf> received = new HashMap<>();
+    private boolean acknowledgementPending = false;
+    private long lastReceived = System.nanoTime();
+
+    /**
+     * Creates a new datagram session.
+     *
+     * @param endpoint the endpoint the session communicates through
+     * @param address the remote address
+     * @param bootstrapProtocol the protocol
+     */
+    public DatagramSession(DatagramEndpoint endpoint, InetSocketAddress address, AbstractProtocol bootstrapProtocol) {
+        this.endpoint = endpoint;
+        this.address = address;
+        this.protocol = bootstrapProtocol;
+    }
+
+    public DatagramEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Sends a message reliably and in order.
+     *
+     * @param message the message
+     * @throws ChannelClosedException if the session is inactive
+     */
+    @Override
+    public void send(Message message) throws ChannelClosedException {
+        send(Delivery.RELIABLE_ORDERED, message);
+    }
+
+    /**
+     * Sends a message. It is written on the next flush of the session, which is scheduled on the event loop by the first message sent after a flush.
+     *
+     * @param delivery how to deliver the message
+     * @param message the message
+     * @throws ChannelClosedException if the session is inactive
+     * @throws IllegalArgumentException if the encoded message doesn't fit in a datagram
+     */
+    public void send(Delivery delivery, Message message) throws ChannelClosedException {
+        if (!active) {
+            throw new ChannelClosedException("Trying to send a message when a session is inactive!");
+        }
+        final Channel channel = endpoint.getChannel();
+        final ByteBuf frame;
+        try {
+            frame = MessageEncoder.encodeFrame(channel.alloc(), protocol, message);
+        } catch (IOException ex) {
+            onOutboundThrowable(ex);
+            return;
+        }
+        final int maxSize = endpoint.getMaxPacketSize() - ACK_SIZE - ENTRY_OVERHEAD;
+        if (frame.readableBytes() > maxSize) {
+            final int size = frame.readableBytes();
+            frame.release();
+            throw new IllegalArgumentException("Message " + message + " is " + size + " bytes, more than the " + maxSize + " that fit in a datagram");
+        }
+        outbound.add(new Outgoing(delivery, frame));
+        scheduleFlush();
+    }
+
+    @Override
+    public void sendAll(Message... messages) throws ChannelClosedException {
+        for (Message message : messages) {
+            send(message);
+        }
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            endpoint.getChannel().eventLoop().execute(flushTask);
+        }
+    }
+
+    /**
+     * Writes the messages sent since the last flush, and optionally retransmits the reliable messages that weren't acknowledged in time.
+     * Acknowledgements are written even if there's nothing else to send. Reliable messages past the receive window of the remote end wait until
+     * earlier ones are acknowledged.
+     *
+     * @param now the current {@link System#nanoTime()}
+     * @param retransmit whether to retransmit
+     */
+    void flush(long now, boolean retransmit) {
+        if (!active) {
+            // Sent while the session was closing
+            close();
+            return;
+        }
+        ByteBuf packet = null;
+        if (retransmit) {
+            final long timeout = endpoint.getRetransmitTimeoutNanos();
+            // The messages left over are due again on the next tick, the oldest first
+            final long budget = (long) endpoint.getMaxPacketSize() * endpoint.getMaxRetransmitPackets();
+            long retransmitted = 0;
+            for (Outgoing message : unacknowledged) {
+                if (now - message.sentAt >= timeout) {
+                    retransmitted += ENTRY_OVERHEAD + message.frame.readableBytes();
+                    if (retransmitted > budget) {
+                        break;
+                    }
+                    message.sentAt = now;
+                    packet = append(packet, message);
+                }
+            }
+        }
+        Outgoing message;
+        while (unacknowledged.size() < RECEIVE_WINDOW && (message = windowed.poll()) != null) {
+            packet = sendReliable(packet, message, now);
+        }
+        while ((message = outbound.poll()) != null) {
+            switch (message.delivery) {
+                case UNRELIABLE_SEQUENCED:
+                    message.sequence = nextSequenced++;
+                    break;
+                case RELIABLE_ORDERED:
+                    if (!windowed.isEmpty() || unacknowledged.size() >= RECEIVE_WINDOW) {
+                        windowed.add(message);
+                    } else {
+                        packet = sendReliable(packet, message, now);
+                    }
+                    continue;
+                default:
+                    break;
+            }
+            packet = append(packet, message);
+            message.frame.release();
+        }
+        if (packet == null && acknowledgementPending) {
+            packet = newPacket();
+        }
+        if (packet != null) {
+            endpoint.getChannel().writeAndFlush(new DatagramPacket(packet, address));
+        }
+    }
+
+    private ByteBuf sendReliable(ByteBuf packet, Outgoing message, long now) {
+        message.sequence = nextReliable++;
+        message.sentAt = now;
+        unacknowledged.add(message);
+        return append(packet, message);
+    }
+
+    private ByteBuf append(ByteBuf packet, Outgoing message) {
+        final int length = message.frame.readableBytes();
+        if (packet != null && packet.readableBytes() + ENTRY_OVERHEAD + length > endpoint.getMaxPacketSize()) {
+            endpoint.getChannel().write(new DatagramPacket(packet, address));
+            packet = null;
+        }
+        if (packet == null) {
+            packet = newPacket();
+        }
+        packet.writeByte(message.delivery.ordinal());
+        if (message.delivery != Delivery.UNRELIABLE) {
+            ByteBufUtils.writeVarInt(packet, message.sequence);
+        }
+        ByteBufUtils.writeVarInt(packet, length);
+        packet.writeBytes(message.frame, message.frame.readerIndex(), length);
+        return packet;
+    }
+
+    private ByteBuf newPacket() {
+        final ByteBuf packet = endpoint.getChannel().alloc().buffer(endpoint.getMaxPacketSize());
+        ByteBufUtils.writeVarInt(packet, nextReliableExpected);
+        acknowledgementPending = false;
+        return packet;
+    }
+
+    /**
+     * Reads a datagram received from the remote address. Runs on the event loop.
+     *
+     * @param packet the content of the datagram
+     */
+    void packetReceived(ByteBuf packet) {
+        lastReceived = System.nanoTime();
+        try {
+            acknowledge(ByteBufUtils.readVarInt(packet));
+            while (packet.isReadable()) {
+                final Delivery delivery = Delivery.fromOrdinal(packet.readUnsignedByte());
+                if (delivery == null) {
+                    throw new IOException("Unknown delivery in datagram from " + address);
+                }
+                final int sequence = delivery != Delivery.UNRELIABLE ? ByteBufUtils.readVarInt(packet) : 0;
+                final ByteBuf frame = packet.readSlice(ByteBufUtils.readVarInt(packet));
+                switch (delivery) {
+                    case UNRELIABLE:
+                        deliver(frame);
+                        break;
+                    case UNRELIABLE_SEQUENCED:
+                        if (sequence - lastSequencedReceived > 0) {
+                            lastSequencedReceived = sequence;
+                            deliver(frame);
+                        }
+                        break;
+                    case RELIABLE_ORDERED:
+                        receiveReliable(sequence, frame);
+                        break;
+                }
+            }
+        } catch (IOException | IndexOutOfBoundsException ex) {
+            // The rest of a malformed datagram is dropped, reliable messages in it will be retransmitted
+            onInboundThrowable(ex);
+        }
+        if (acknowledgementPending || (!windowed.isEmpty() && unacknowledged.size() < RECEIVE_WINDOW)) {
+            scheduleFlush();
+        }
+    }
+
+    private void acknowledge(int acknowledged) {
+        Outgoing message;
+        while ((message = unacknowledged.peek()) != null && message.sequence - acknowledged < 0) {
+            unacknowledged.poll().frame.release();
+        }
+    }
+
+    private void receiveReliable(int sequence, ByteBuf frame) {
+        // Even a duplicate is acknowledged, in case the previous acknowledgement was lost
+        acknowledgementPending = true;
+        final int ahead = sequence - nextReliableExpected;
+        if (ahead == 0) {
+            nextReliableExpected++;
+            deliver(frame);
+            ByteBuf next;
+            while ((next = received.remove(nextReliableExpected)) != null) {
+                nextReliableExpected++;
+                try {
+                    deliver(next);
+                } finally {
+                    next.release();
+                }
+            }
+        } else if (ahead > 0 && ahead < RECEIVE_WINDOW && !received.containsKey(sequence)) {
+            received.put(sequence, frame.copy());
+        }
+    }
+
+    private void deliver(ByteBuf frame) {
+        final Message message;
+        try {
+            message = MessageDecoder.decodeMessage(protocol, frame);
+        } catch (Exception ex) {
+            onInboundThrowable(ex);
+            return;
+        }
+        messageReceived(message);
+    }
+
+    /**
+     * Checks the session for a timeout and retransmits what needs to be. Runs on the event loop.
+     *
+     * @param now the current {@link System#nanoTime()}
+     */
+    void tick(long now) {
+        if (now - lastReceived >= endpoint.getSessionTimeoutNanos()) {
+            endpoint.closeSession(this);
+            return;
+        }
+        flush(now, true);
+    }
+
+    /**
+     * Marks the session inactive and releases its buffers. Runs on the event loop.
+     */
+    void close() {
+        active = false;
+        Outgoing message;
+        while ((message = outbound.poll()) != null) {
+            message.frame.release();
+        }
+        while ((message = unacknowledged.poll()) != null) {
+            message.frame.release();
+        }
+        while ((message = windowed.poll()) != null) {
+            message.frame.release();
+        }
+        for (ByteBuf frame : received.values()) {
+            frame.release();
+        }
+        received.clear();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Message> void messageReceived(T message) {
+        final Class<Message> messageClass = (Class<Message>) message.getClass();
+        final MessageHandler<DatagramSession, Message> handler = (MessageHandler<DatagramSession, Message>) protocol.getMessageHandle(messageClass);
+        if (handler != null) {
+            try {
+                handler.handle(this, message);
+            } catch (Throwable t) {
+                onHandlerThrowable(message, handler, t);
+            }
+        }
+    }
+
+    @Override
+    public AbstractProtocol getProtocol() {
+        return protocol;
+    }
+
+    protected void setProtocol(AbstractProtocol protocol) {
+        this.protocol = protocol;
+    }
+
+    @Override
+    public MessageProcessor getProcessor() {
+        return null;
+    }
+
+    /**
+     * Closes the session. Nothing is sent to the remote address, whose own session will time out.
+     */
+    @Override
+    public void disconnect() {
+        endpoint.closeSession(this);
+    }
+
+    @Override
+    public void onDisconnect() {
+    }
+
+    @Override
+    public void onReady() {
+    }
+
+    @Override
+    public void onInboundThrowable(Throwable throwable) {
+    }
+
+    /**
+     * Called when a message can't be encoded.
+     *
+     * @param throwable the throwable
+     */
+    public void onOutboundThrowable(Throwable throwable) {
+    }
+
+    /**
+     * Called when an exception occurs during session handling
+     *
+     * @param message the message handler threw an exception on
+     * @param handle handler that threw the an exception handling the message
+     * @param throwable the throwable
+     */
+    public void onHandlerThrowable(Message message, MessageHandler<?, ?> handle, Throwable throwable) {
+    }
+
+    @Override
+    public Logger getLogger() {
+        return protocol.getLogger();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + " [address=" + address + "]";
+    }
+
+    private static class Outgoing {
+        private final Delivery delivery;
+        private final ByteBuf frame;
+        private int sequence;
+        private long sentAt;
+
+        private Outgoing(Delivery delivery, ByteBuf frame) {
+            this.delivery = delivery;
+            this.frame = frame;
+        }
+    }
+}
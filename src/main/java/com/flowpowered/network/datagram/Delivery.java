@@ -0,0 +1,55 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.datagram;
+
+/**
+ * How a message sent over a {@link DatagramSession} is delivered.
+ */
+public enum Delivery {
+    /**
+     * The message may be lost, duplicated or arrive out of order. Suits frequent updates which are superseded by the next one anyway.
+     */
+    UNRELIABLE,
+    /**
+     * The message may be lost, but is dropped if it arrives after a more recent message sent with the same delivery. Suits state updates such as
+     * positions, where only the latest value matters.
+     */
+    UNRELIABLE_SEQUENCED,
+    /**
+     * The message is acknowledged and retransmitted until it arrives, and is handled after every reliable message sent before it.
+     */
+    RELIABLE_ORDERED;
+
+    private static final Delivery[] VALUES = values();
+
+    /**
+     * Gets a delivery from its ordinal, as written on the wire.
+     *
+     * @param ordinal the ordinal
+     * @return the delivery, or null if the ordinal is out of range
+     */
+    static Delivery fromOrdinal(int ordinal) {
+        return ordinal >= 0 && ordinal < VALUES.length ? VALUES[ordinal] : null;
+    }
+}
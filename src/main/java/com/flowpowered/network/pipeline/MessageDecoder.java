@@ -23,46 +23,235 @@
  */
 package com.flowpowered.network.pipeline;
 
+import java.io.IOException;
 import java.util.List;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.ReplayingDecoder;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.util.Signal;
 
 import com.flowpowered.network.Codec;
 import com.flowpowered.network.Message;
+import com.flowpowered.network.StreamingCodec;
+import com.flowpowered.network.StreamingCodec.ChunkDecoder;
 import com.flowpowered.network.exception.UnknownPacketException;
+import com.flowpowered.network.protocol.FramedProtocol;
 import com.flowpowered.network.protocol.Protocol;
 
 /**
- * A {@link ReplayingDecoder} which decodes {@link ByteBuf}s into {@link Message}s.
+ * A {@link ByteToMessageDecoder} which decodes {@link ByteBuf}s into {@link Message}s.
+ * <br/>
+ * If the protocol is a {@link FramedProtocol}, bytes are accumulated until a whole frame is available, which is then decoded once, or, for a
+ * {@link StreamingCodec}, decoded chunk by chunk as the bytes arrive. Otherwise, decoding
+ * is attempted on the available bytes and started over when more arrive if it runs out of them, in the manner of a {@link io.netty.handler.codec.ReplayingDecoder}.
  */
-public class MessageDecoder extends ReplayingDecoder<ByteBuf> {
+public class MessageDecoder extends ByteToMessageDecoder {
+    /**
+     * The default maximum number of bytes buffered while a message of a protocol which isn't framed runs out of bytes to decode from.
+     */
+    public static final int DEFAULT_MAX_REPLAY_LENGTH = 1024 * 1024;
     private final MessageHandler messageHandler;
+    private volatile int maxFrameLength = Integer.MAX_VALUE;
+    private volatile int maxReplayLength = DEFAULT_MAX_REPLAY_LENGTH;
+    // The frame at the reader index has been peeked and isn't streamed
+    private boolean awaitingFrame = false;
+    private ChunkDecoder<?> chunkDecoder;
+    private int chunkRemaining;
+    private int skipRemaining;
 
     public MessageDecoder(final MessageHandler handler) {
         this.messageHandler = handler;
     }
 
+    /**
+     * Sets the longest frame that will be buffered before it is decoded. Longer frames are skipped and fail with a {@link TooLongFrameException}.
+     * Messages of a {@link StreamingCodec} are decoded as they arrive and are not limited by this. Only applies to {@link FramedProtocol}s, see
+     * {@link #setMaxReplayLength(int)} for the others.
+     *
+     * @param maxFrameLength the maximum frame length in bytes
+     */
+    public void setMaxFrameLength(int maxFrameLength) {
+        if (maxFrameLength <= 0) {
+            throw new IllegalArgumentException("maxFrameLength must be positive: " + maxFrameLength);
+        }
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    /**
+     * Sets the maximum number of bytes buffered while a message of a protocol which isn't a {@link FramedProtocol} runs out of bytes to decode
+     * from. Once more than this many bytes fail to decode, they are skipped and a {@link TooLongFrameException} is thrown rather than waiting for
+     * more. {@link #DEFAULT_MAX_REPLAY_LENGTH} by default.
+     *
+     * @param maxReplayLength the maximum number of bytes
+     */
+    public void setMaxReplayLength(int maxReplayLength) {
+        if (maxReplayLength <= 0) {
+            throw new IllegalArgumentException("maxReplayLength must be positive: " + maxReplayLength);
+        }
+        this.maxReplayLength = maxReplayLength;
+    }
+
+    public int getMaxReplayLength() {
+        return maxReplayLength;
+    }
+
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf buf, List<Object> out) throws Exception {
         Protocol protocol = messageHandler.getSession().getProtocol();
-        Codec<?> codec = null;
+        if (protocol instanceof FramedProtocol) {
+            decodeFramed((FramedProtocol) protocol, buf, out);
+        } else {
+            decodeReplaying(protocol, buf, out);
+        }
+    }
+
+    private void decodeFramed(FramedProtocol protocol, ByteBuf buf, List<Object> out) throws Exception {
+        if (skipRemaining > 0) {
+            final int skipped = Math.min(skipRemaining, buf.readableBytes());
+            buf.skipBytes(skipped);
+            skipRemaining -= skipped;
+            return;
+        }
+        if (chunkDecoder != null) {
+            decodeChunk(buf, out);
+            return;
+        }
+        final int length = protocol.getFrameLength(buf);
+        if (length < 0) {
+            return;
+        }
+        if (length > maxFrameLength) {
+            // Streamed, or rejected however much of it has arrived
+            startFrame(protocol, buf, length, out);
+            return;
+        }
+        if (buf.readableBytes() >= length) {
+            awaitingFrame = false;
+            // The frame is consumed from the cumulation even if it can't be decoded, so there is nothing to skip on an unknown packet
+            out.add(decodeMessage(protocol, buf.readSlice(length)));
+            return;
+        }
+        if (!awaitingFrame) {
+            startFrame(protocol, buf, length, out);
+        }
+    }
+
+    private void startFrame(FramedProtocol protocol, ByteBuf buf, int length, List<Object> out) throws Exception {
+        final int start = buf.readerIndex();
+        Codec<?> codec;
         try {
             codec = protocol.readHeader(buf);
+        } catch (IndexOutOfBoundsException e) {
+            // Not enough of the header yet
+            buf.readerIndex(start);
+            return;
         } catch (UnknownPacketException e) {
-            // We want to catch this and read the length if possible
-            int length = e.getLength();
-            if (length != -1 && length != 0) {
-                buf.readBytes(length);
-            }
+            // Reported once the whole frame is in, like any other frame
+            codec = null;
+        }
+        if (codec instanceof StreamingCodec) {
+            chunkRemaining = length - (buf.readerIndex() - start);
+            chunkDecoder = ((StreamingCodec<?>) codec).newChunkDecoder(chunkRemaining);
+            decodeChunk(buf, out);
+            return;
+        }
+        buf.readerIndex(start);
+        if (length > maxFrameLength) {
+            skipRemaining = length;
+            decodeFramed(protocol, buf, out);
+            throw new TooLongFrameException("Frame length exceeds " + maxFrameLength + ": " + length);
+        }
+        awaitingFrame = true;
+    }
+
+    private void decodeChunk(ByteBuf buf, List<Object> out) throws Exception {
+        final int length = Math.min(chunkRemaining, buf.readableBytes());
+        chunkRemaining -= length;
+        try {
+            chunkDecoder.decodeChunk(buf.readSlice(length));
+        } catch (Exception e) {
+            // Drop the rest of the message and pick up at the next frame
+            skipRemaining = chunkRemaining;
+            abortChunks();
             throw e;
         }
+        if (chunkRemaining == 0) {
+            final ChunkDecoder<?> decoder = chunkDecoder;
+            chunkDecoder = null;
+            out.add(decoder.finish());
+        }
+    }
+
+    private void abortChunks() {
+        if (chunkDecoder != null) {
+            final ChunkDecoder<?> decoder = chunkDecoder;
+            chunkDecoder = null;
+            decoder.abort();
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        super.channelInactive(ctx);
+        abortChunks();
+    }
+
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+        abortChunks();
+    }
+
+    private void decodeReplaying(Protocol protocol, ByteBuf buf, List<Object> out) throws Exception {
+        final int start = buf.readerIndex();
+        // Only running out of the bytes received so far starts the decoding over, any other exception is a failure to decode
+        final ReplayBuffer replay = new ReplayBuffer(buf);
+        try {
+            Message decoded;
+            try {
+                decoded = decodeMessage(protocol, replay);
+            } catch (UnknownPacketException e) {
+                // We want to catch this and read the length if possible
+                int length = e.getLength();
+                if (length != -1 && length != 0) {
+                    replay.skipBytes(length);
+                }
+                throw e;
+            } finally {
+                buf.readerIndex(replay.readerIndex());
+            }
+            out.add(decoded);
+        } catch (Signal signal) {
+            signal.expect(ReplayBuffer.REPLAY);
+            final int buffered = buf.writerIndex() - start;
+            if (buffered > maxReplayLength) {
+                buf.readerIndex(buf.writerIndex());
+                throw new TooLongFrameException("Could not decode a message from " + buffered + " bytes, the limit is " + maxReplayLength);
+            }
+            // Not enough bytes yet, start over once more arrive
+            buf.readerIndex(start);
+        }
+    }
 
+    /**
+     * Decodes a message from its header and body, as encoded by {@link MessageEncoder#encodeFrame(io.netty.buffer.ByteBufAllocator, Protocol, Message)}.
+     *
+     * @param protocol the protocol to decode the message with
+     * @param buf the buffer to read the message from
+     * @return the message
+     * @throws UnknownPacketException if the protocol doesn't know the message
+     * @throws IOException if the message can't be decoded
+     */
+    public static Message decodeMessage(Protocol protocol, ByteBuf buf) throws UnknownPacketException, IOException {
+        Codec<?> codec = protocol.readHeader(buf);
         if (codec == null) {
             throw new UnsupportedOperationException("Protocol#readHeader cannot return null!");
         }
-        Message decoded = codec.decode(buf);
-        out.add(decoded);
+        return codec.decode(buf);
     }
 }
\ No newline at end of file
@@ -27,16 +27,25 @@ import java.io.IOException;
 import java.util.List;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.handler.stream.ChunkedWriteHandler;
 
+import com.flowpowered.network.Codec;
 import com.flowpowered.network.Codec.CodecRegistration;
 import com.flowpowered.network.Message;
+import com.flowpowered.network.SizeEstimatingCodec;
+import com.flowpowered.network.StreamingCodec;
 import com.flowpowered.network.protocol.Protocol;
+import com.flowpowered.network.protocol.ReservedHeaderProtocol;
 
 /**
  * A {@link MessageToMessageEncoder} which encodes into {@link ByteBuf}s.
+ * <br/>
+ * Messages of a {@link StreamingCodec} are encoded as a header followed by a {@link io.netty.handler.stream.ChunkedInput} when the protocol is a
+ * {@link ReservedHeaderProtocol} and the pipeline has a {@link ChunkedWriteHandler}.
  */
 public class MessageEncoder extends MessageToMessageEncoder<Message> {
     private final MessageHandler messageHandler;
@@ -46,18 +55,113 @@ public class MessageEncoder extends MessageToMessageEncoder<Message> {
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     protected void encode(ChannelHandlerContext ctx, Message message, List<Object> out) throws Exception {
         final Protocol protocol = messageHandler.getSession().getProtocol();
+        final CodecRegistration reg = getRegistration(protocol, message);
+        if (reg.getCodec() instanceof StreamingCodec && protocol instanceof ReservedHeaderProtocol && ctx.pipeline().get(ChunkedWriteHandler.class) != null) {
+            // The header goes first, then the chunks are written by the ChunkedWriteHandler as the channel can take them
+            final StreamingCodec<Message> codec = (StreamingCodec<Message>) reg.getCodec();
+            final ReservedHeaderProtocol reserved = (ReservedHeaderProtocol) protocol;
+            final int length = codec.getLength(message);
+            final ByteBuf header = ctx.alloc().buffer(reserved.getHeaderSize(reg, length));
+            reserved.writeHeader(header, reg, length);
+            messageHandler.addEncodedBytes(header.readableBytes() + length);
+            out.add(header);
+            out.add(codec.newChunkedInput(message));
+            return;
+        }
+        final ByteBuf frame = encodeFrame(ctx.alloc(), protocol, reg, message);
+        messageHandler.addEncodedBytes(frame.readableBytes());
+        out.add(frame);
+    }
+
+    /**
+     * Encodes a message and its header into a frame, ready to be written to any channel using the same protocol. This is what the encoder writes
+     * for every message, and allows a message to be encoded once and written to many channels.
+     *
+     * @param alloc the allocator for the frame
+     * @param protocol the protocol to encode the message with
+     * @param message the message
+     * @return the frame
+     * @throws IOException if the message type is unknown to the protocol or can't be encoded
+     */
+    public static ByteBuf encodeFrame(ByteBufAllocator alloc, Protocol protocol, Message message) throws IOException {
+        return encodeFrame(alloc, protocol, getRegistration(protocol, message), message);
+    }
+
+    private static CodecRegistration getRegistration(Protocol protocol, Message message) throws IOException {
         final Class<? extends Message> clazz = message.getClass();
-        CodecRegistration reg = protocol.getCodecRegistration(message.getClass());
+        final CodecRegistration reg = protocol.getCodecRegistration(clazz);
         if (reg == null) {
-            throw new Exception("Unknown message type: " + clazz + ".");
+            throw new IOException("Unknown message type: " + clazz + ".");
+        }
+        return reg;
+    }
+
+    private static ByteBuf encodeFrame(ByteBufAllocator alloc, Protocol protocol, CodecRegistration reg, Message message) throws IOException {
+        if (protocol instanceof ReservedHeaderProtocol) {
+            return encodeReserved(alloc, (ReservedHeaderProtocol) protocol, reg, message);
         }
-        ByteBuf messageBuf = ctx.alloc().buffer();
+        final int sizeHint = getSizeHint(reg, message);
+        ByteBuf messageBuf = sizeHint > 0 ? alloc.buffer(sizeHint) : alloc.buffer();
         messageBuf = reg.getCodec().encode(messageBuf, message);
+        reg.recordEncodedSize(messageBuf.readableBytes());
 
-        ByteBuf headerBuf = ctx.alloc().buffer();
+        ByteBuf headerBuf = alloc.buffer();
         headerBuf = protocol.writeHeader(headerBuf, reg, messageBuf);
-        out.add(Unpooled.wrappedBuffer(headerBuf, messageBuf));
+        return Unpooled.wrappedBuffer(headerBuf, messageBuf);
+    }
+
+    /**
+     * Encodes the message and its header into a single buffer. Space for the largest header is reserved in front of the message, and the header is
+     * written afterwards so that it ends where the message starts.
+     */
+    private static ByteBuf encodeReserved(ByteBufAllocator alloc, ReservedHeaderProtocol protocol, CodecRegistration reg, Message message) throws IOException {
+        final int reserved = protocol.getMaxHeaderSize();
+        final int sizeHint = getSizeHint(reg, message);
+        final ByteBuf buf = sizeHint > 0 ? alloc.buffer(reserved + sizeHint) : alloc.buffer();
+        boolean success = false;
+        try {
+            buf.ensureWritable(reserved);
+            buf.writerIndex(reserved);
+            if (reg.getCodec().encode(buf, message) != buf) {
+                throw new UnsupportedOperationException("Codec#encode must return the buffer it was given when the protocol reserves its header!");
+            }
+            final int length = buf.writerIndex() - reserved;
+            reg.recordEncodedSize(length);
+            final int headerSize = protocol.getHeaderSize(reg, length);
+            if (headerSize < 0 || headerSize > reserved) {
+                throw new IllegalStateException("Header size " + headerSize + " is outside of the reserved " + reserved + " bytes!");
+            }
+            final int start = reserved - headerSize;
+            buf.writerIndex(start);
+            protocol.writeHeader(buf, reg, length);
+            if (buf.writerIndex() != reserved) {
+                throw new IllegalStateException("Protocol wrote " + (buf.writerIndex() - start) + " header bytes but declared " + headerSize + "!");
+            }
+            buf.setIndex(start, reserved + length);
+            success = true;
+            return buf;
+        } finally {
+            if (!success) {
+                buf.release();
+            }
+        }
+    }
+
+    /**
+     * Gets the initial capacity to allocate for the encoded message, from the codec's own estimate if it provides one, otherwise from the sizes of
+     * previously encoded messages.
+     *
+     * @return the expected size, or 0 if unknown
+     */
+    @SuppressWarnings("unchecked")
+    private static int getSizeHint(CodecRegistration reg, Message message) {
+        final Codec<Message> codec = reg.getCodec();
+        if (codec instanceof SizeEstimatingCodec) {
+            return ((SizeEstimatingCodec<Message>) codec).estimateSize(message);
+        }
+        return reg.getSizeHint();
     }
 }
\ No newline at end of file
@@ -23,21 +23,30 @@
  */
 package com.flowpowered.network.pipeline;
 
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.EncoderException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.flowpowered.network.ConnectionManager;
 import com.flowpowered.network.Message;
+import com.flowpowered.network.session.BasicSession;
 import com.flowpowered.network.session.Session;
 
 /**
  * A {@link SimpleChannelUpstreamHandler} which processes incoming network events.
+ * <br/>
+ * With inbound batching, the messages decoded from one read of the channel are passed to {@link BasicSession#messagesReceived(List)} together once
+ * the read completes, rather than to {@link Session#messageReceived(Message)} one at a time. Writability changes and outbound throwables are also
+ * only reported to {@link BasicSession}s; other sessions get outbound throwables as inbound ones.
  */
 public class MessageHandler extends SimpleChannelInboundHandler<Message> {
     /**
@@ -45,6 +54,15 @@ public class MessageHandler extends SimpleChannelInboundHandler<Message> {
      */
     private final AtomicReference<Session> session = new AtomicReference<>(null);
     private final ConnectionManager connectionManager;
+    private boolean batchInbound = false;
+    /**
+     * The messages of the read in progress, when batching
+     */
+    private final List<Message> batch = new ArrayList<>();
+    /**
+     * The number of bytes the encoders of the channel have encoded messages into. Only accessed from the event loop.
+     */
+    private long encodedBytes = 0;
 
     /**
      * Creates a new network event handler.
@@ -53,6 +71,19 @@ public class MessageHandler extends SimpleChannelInboundHandler<Message> {
         this.connectionManager = connectionManager;
     }
 
+    public boolean isBatchInbound() {
+        return batchInbound;
+    }
+
+    /**
+     * Sets whether the messages of a read are passed to the session together. Must be set before the handler is added to a pipeline.
+     *
+     * @param batchInbound whether to batch inbound messages
+     */
+    public void setBatchInbound(boolean batchInbound) {
+        this.batchInbound = batchInbound;
+    }
+
     @Override
     public void channelActive(ChannelHandlerContext ctx) {
         final Channel c = ctx.channel();
@@ -65,19 +96,92 @@ public class MessageHandler extends SimpleChannelInboundHandler<Message> {
 
     @Override
     public void channelInactive(ChannelHandlerContext ctx) {
+        deliverBatch();
         Session session = this.session.get();
         session.onDisconnect();
         connectionManager.sessionInactivated(session);
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        final Session session = this.session.get();
+        if (session instanceof BasicSession) {
+            ((BasicSession) session).onWritabilityChanged(ctx.channel().isWritable());
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, Message i) {
-        session.get().messageReceived(i);
+        if (batchInbound) {
+            batch.add(i);
+        } else {
+            session.get().messageReceived(i);
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        deliverBatch();
+        ctx.fireChannelReadComplete();
+    }
+
+    private void deliverBatch() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        final Session session = this.session.get();
+        try {
+            if (session instanceof BasicSession) {
+                ((BasicSession) session).messagesReceived(batch);
+            } else {
+                for (int i = 0; i < batch.size(); i++) {
+                    session.messageReceived(batch.get(i));
+                }
+            }
+        } finally {
+            batch.clear();
+        }
     }
 
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
-        session.get().onInboundThrowable(cause);
+        final Session session = this.session.get();
+        if (session instanceof BasicSession && isOutbound(cause)) {
+            ((BasicSession) session).onOutboundThrowable(cause);
+        } else {
+            session.onInboundThrowable(cause);
+        }
+    }
+
+    /**
+     * Tells whether a throwable fired down the pipeline comes from a write, which happens when a write with a void promise fails. Netty doesn't
+     * mark these, so only failures to encode or to write to a closed channel are recognized. {@link BasicSession} writes with real promises and
+     * reports their failures itself, this only covers the void promise writes of other handlers.
+     *
+     * @param cause the throwable
+     * @return whether the throwable comes from a write
+     */
+    private static boolean isOutbound(Throwable cause) {
+        return cause instanceof EncoderException || cause instanceof ClosedChannelException;
+    }
+
+    /**
+     * Gets the number of bytes the encoders of the channel have encoded messages into so far. Must be called from the event loop.
+     *
+     * @return the number of encoded bytes
+     */
+    public long getEncodedBytes() {
+        return encodedBytes;
+    }
+
+    /**
+     * Adds to the number of encoded bytes. Called by the encoders on the event loop.
+     *
+     * @param bytes the size of an encoded message
+     */
+    void addEncodedBytes(int bytes) {
+        encodedBytes += bytes;
     }
 
     public Session getSession() {
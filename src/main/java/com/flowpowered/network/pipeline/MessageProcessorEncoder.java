@@ -45,7 +45,8 @@ public class MessageProcessorEncoder extends MessageToMessageEncoder<ByteBuf> {
     protected void encode(ChannelHandlerContext ctx, final ByteBuf buf, List<Object> out) throws Exception {
         final MessageProcessor processor = getProcessor();
         if (processor == null) {
-            out.add(buf.readBytes(buf.readableBytes()));
+            // Pass the buffer on as is, it may be a frame shared by several channels
+            out.add(buf.retain());
             return;
         }
         ByteBuf toAdd = ctx.alloc().buffer();
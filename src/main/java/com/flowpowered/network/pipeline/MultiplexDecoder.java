@@ -0,0 +1,219 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.pipeline;
+
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+
+import com.flowpowered.network.util.ByteBufUtils;
+
+/**
+ * Reassembles the fragments written by a {@link MultiplexEncoder} into the frames of whole messages, which are passed on to the {@link MessageDecoder}.
+ * Fragments of the messages of each stream are accumulated separately, up to the maximum message size, and up to a maximum size of all the
+ * messages being reassembled.
+ */
+public class MultiplexDecoder extends ByteToMessageDecoder {
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 8 * 1024 * 1024;
+    private final int maxMessageSize;
+    private final int maxFragmentSize;
+    /**
+     * The fragments received so far of the current message of each stream
+     */
+    private final ByteBuf[] partial;
+    /**
+     * The maximum number of bytes of all the streams' partial messages
+     */
+    private volatile int maxBufferedSize;
+    /**
+     * The number of bytes of all the streams' partial messages
+     */
+    private int buffered = 0;
+    /**
+     * The number of bytes left of a rejected fragment, which are skipped as they arrive
+     */
+    private int discarding = 0;
+    /**
+     * Whether a malformed header was received, after which the input can't be framed anymore
+     */
+    private boolean corrupted = false;
+
+    public MultiplexDecoder() {
+        this(DEFAULT_MAX_MESSAGE_SIZE);
+    }
+
+    /**
+     * Creates a new multiplex decoder accepting fragments up to the size of a message.
+     *
+     * @param maxMessageSize the maximum size of a reassembled message
+     */
+    public MultiplexDecoder(int maxMessageSize) {
+        this(maxMessageSize, maxMessageSize);
+    }
+
+    /**
+     * Creates a new multiplex decoder.
+     *
+     * @param maxMessageSize the maximum size of a reassembled message
+     * @param maxFragmentSize the maximum size of the payload of a fragment, which is the fragment size of the {@link MultiplexEncoder} at the other end
+     */
+    public MultiplexDecoder(int maxMessageSize, int maxFragmentSize) {
+        this(maxMessageSize, maxFragmentSize, MultiplexEncoder.MAX_STREAMS);
+    }
+
+    /**
+     * Creates a new multiplex decoder. Fragments of streams past the number of streams are rejected and close the channel. The messages being
+     * reassembled may take up to twice the maximum message size in all, see {@link #setMaxBufferedSize(int)}.
+     *
+     * @param maxMessageSize the maximum size of a reassembled message
+     * @param maxFragmentSize the maximum size of the payload of a fragment, which is the fragment size of the {@link MultiplexEncoder} at the other end
+     * @param streams the number of streams, which is the number of weights of the {@link MultiplexEncoder} at the other end
+     */
+    public MultiplexDecoder(int maxMessageSize, int maxFragmentSize, int streams) {
+        if (maxMessageSize <= 0) {
+            throw new IllegalArgumentException("Max message size must be positive: " + maxMessageSize);
+        }
+        if (maxFragmentSize <= 0) {
+            throw new IllegalArgumentException("Max fragment size must be positive: " + maxFragmentSize);
+        }
+        if (streams <= 0 || streams > MultiplexEncoder.MAX_STREAMS) {
+            throw new IllegalArgumentException("Number of streams must be between 1 and " + MultiplexEncoder.MAX_STREAMS + ": " + streams);
+        }
+        this.maxMessageSize = maxMessageSize;
+        this.maxFragmentSize = maxFragmentSize;
+        this.partial = new ByteBuf[streams];
+        this.maxBufferedSize = (int) Math.min(Integer.MAX_VALUE, 2L * maxMessageSize);
+    }
+
+    public int getMaxBufferedSize() {
+        return maxBufferedSize;
+    }
+
+    /**
+     * Sets the maximum number of bytes of all the messages being reassembled, so that a peer can't start a large message on every stream. A
+     * fragment which doesn't fit fails with a {@link TooLongFrameException}, along with the rest of its message.
+     *
+     * @param maxBufferedSize the maximum number of bytes
+     */
+    public void setMaxBufferedSize(int maxBufferedSize) {
+        if (maxBufferedSize <= 0) {
+            throw new IllegalArgumentException("Max buffered size must be positive: " + maxBufferedSize);
+        }
+        this.maxBufferedSize = maxBufferedSize;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        if (corrupted) {
+            in.skipBytes(in.readableBytes());
+            return;
+        }
+        if (discarding > 0) {
+            final int skipped = Math.min(discarding, in.readableBytes());
+            in.skipBytes(skipped);
+            discarding -= skipped;
+            return;
+        }
+        final int start = in.readerIndex();
+        final int stream;
+        final boolean last;
+        final int length;
+        try {
+            stream = in.readUnsignedByte();
+            last = (in.readByte() & MultiplexEncoder.LAST_FRAGMENT) != 0;
+            length = ByteBufUtils.readVarInt(in);
+        } catch (IndexOutOfBoundsException e) {
+            in.readerIndex(start);
+            return;
+        }
+        // The length is checked before waiting for the payload, so that a peer can't make the fragment buffered regardless of its size
+        if (length < 0) {
+            throw corrupt(ctx, in, "Negative fragment length on stream " + stream + ": " + length);
+        }
+        if (stream >= partial.length) {
+            throw corrupt(ctx, in, "Stream " + stream + " is out of range, there are " + partial.length + " streams");
+        }
+        ByteBuf message = partial[stream];
+        final long size = (message != null ? message.readableBytes() : 0) + (long) length;
+        // A fragment which completes a message of its own is passed on as is, without being buffered
+        final boolean buffering = message != null || !last;
+        if (length > maxFragmentSize || size > maxMessageSize || (buffering && buffered + (long) length > maxBufferedSize)) {
+            if (message != null) {
+                partial[stream] = null;
+                buffered -= message.readableBytes();
+                message.release();
+            }
+            discarding = length;
+            decode(ctx, in, out);
+            if (length > maxFragmentSize) {
+                throw new TooLongFrameException("Fragment of stream " + stream + " exceeds " + maxFragmentSize + " bytes: " + length);
+            }
+            if (size > maxMessageSize) {
+                throw new TooLongFrameException("Message of stream " + stream + " exceeds " + maxMessageSize + " bytes");
+            }
+            throw new TooLongFrameException("Messages being reassembled exceed " + maxBufferedSize + " bytes, dropped the message of stream " + stream);
+        }
+        if (in.readableBytes() < length) {
+            in.readerIndex(start);
+            return;
+        }
+        if (!buffering) {
+            out.add(in.readSlice(length).retain());
+            return;
+        }
+        if (message == null) {
+            message = ctx.alloc().buffer(length * 2);
+            partial[stream] = message;
+        }
+        message.writeBytes(in, length);
+        buffered += length;
+        if (last) {
+            partial[stream] = null;
+            buffered -= message.readableBytes();
+            out.add(message);
+        }
+    }
+
+    private CorruptedFrameException corrupt(ChannelHandlerContext ctx, ByteBuf in, String reason) {
+        corrupted = true;
+        in.skipBytes(in.readableBytes());
+        ctx.close();
+        return new CorruptedFrameException(reason);
+    }
+
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+        for (int i = 0; i < partial.length; i++) {
+            if (partial[i] != null) {
+                partial[i].release();
+                partial[i] = null;
+            }
+        }
+        buffered = 0;
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.pipeline;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.EncoderException;
+
+import com.flowpowered.network.Message;
+import com.flowpowered.network.StreamedMessage;
+import com.flowpowered.network.util.ByteBufUtils;
+
+/**
+ * Encodes messages onto logical streams of a single connection, so that large messages don't hold back small ones on other streams. Takes the place
+ * of the {@link MessageEncoder} in the pipeline, and needs a {@link MultiplexDecoder} at the other end.
+ * <br/>
+ * Each message is encoded into a frame, queued on its stream (see {@link StreamedMessage}) and cut into fragments of at most the fragment size.
+ * Fragments are written in weighted round robin: each turn, a stream writes as many fragments as its weight. Fragments are only written while the
+ * bytes waiting in the channel's outbound buffer are under its high write buffer watermark, so that messages queued later on another stream don't
+ * wait behind everything queued before them. A fragment is written as its stream as an unsigned byte, a flags byte marking the last fragment of a
+ * message, a varint length and the payload.
+ * <br/>
+ * The bytes queued on the streams count towards the writability of the channel: once they exceed the high watermark, the channel is made
+ * unwritable through the user defined writability {@link #WRITABILITY_INDEX}, until they drop under the low watermark.
+ * <br/>
+ * Frames that are already encoded, such as those written by a {@link com.flowpowered.network.session.Broadcaster}, are sent on stream 0. Messages
+ * on different streams may arrive in a different order than they were sent.
+ */
+public class MultiplexEncoder extends ChannelDuplexHandler {
+    public static final int DEFAULT_FRAGMENT_SIZE = 16 * 1024;
+    /**
+     * Flag marking the last fragment of a message
+     */
+    static final int LAST_FRAGMENT = 1;
+    /**
+     * The number of streams supported by the fragment header
+     */
+    static final int MAX_STREAMS = 256;
+    /**
+     * The index of the user defined writability of the channel which is cleared while too many bytes are queued on the streams
+     */
+    public static final int WRITABILITY_INDEX = 1;
+    private final MessageHandler messageHandler;
+    private final int fragmentSize;
+    private final Stream[] streams;
+    /**
+     * The stream whose turn it is to write fragments
+     */
+    private int current = 0;
+    /**
+     * The number of messages queued on all streams
+     */
+    private int pending = 0;
+    /**
+     * The number of bytes queued on all streams and not yet written as fragments
+     */
+    private long queuedBytes = 0;
+    /**
+     * Whether the channel was made unwritable because of the bytes queued on the streams
+     */
+    private boolean unwritable = false;
+    /**
+     * Whether fragments are being written, so that a writability change caused by writing them doesn't write more from within
+     */
+    private boolean writing = false;
+    /**
+     * Whether writing is to resume once the bytes written so far have left the outbound buffer
+     */
+    private boolean resumeScheduled = false;
+
+    /**
+     * Creates a new multiplex encoder.
+     *
+     * @param messageHandler the handler of the channel
+     * @param fragmentSize the maximum size of the payload of a fragment
+     * @param weights the weight of each stream, by stream id; the number of weights is the number of streams
+     */
+    public MultiplexEncoder(MessageHandler messageHandler, int fragmentSize, int... weights) {
+        if (fragmentSize <= 0) {
+            throw new IllegalArgumentException("Fragment size must be positive: " + fragmentSize);
+        }
+        if (weights.length == 0 || weights.length > MAX_STREAMS) {
+            throw new IllegalArgumentException("Number of streams must be between 1 and " + MAX_STREAMS + ": " + weights.length);
+        }
+        this.messageHandler = messageHandler;
+        this.fragmentSize = fragmentSize;
+        streams = new Stream[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] <= 0) {
+                throw new IllegalArgumentException("Weight of stream " + i + " must be positive: " + weights[i]);
+            }
+            streams[i] = new Stream(weights[i]);
+        }
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        final ByteBuf frame;
+        final int stream;
+        if (msg instanceof ByteBuf) {
+            frame = (ByteBuf) msg;
+            stream = 0;
+        } else if (msg instanceof Message) {
+            stream = msg instanceof StreamedMessage ? ((StreamedMessage) msg).getStream() : 0;
+            if (stream < 0 || stream >= streams.length) {
+                promise.setFailure(new EncoderException("Stream " + stream + " of message " + msg + " is out of range"));
+                return;
+            }
+            try {
+                frame = MessageEncoder.encodeFrame(ctx.alloc(), messageHandler.getSession().getProtocol(), (Message) msg);
+                messageHandler.addEncodedBytes(frame.readableBytes());
+            } catch (Exception ex) {
+                promise.setFailure(new EncoderException(ex));
+                return;
+            }
+        } else {
+            ctx.write(msg, promise);
+            return;
+        }
+        streams[stream].queue.add(new Pending(frame, promise));
+        pending++;
+        queuedBytes += frame.readableBytes();
+        updateWritability(ctx);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        writeFragments(ctx);
+        ctx.flush();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (pending > 0 && !writing && ctx.channel().isWritable()) {
+            writeFragments(ctx);
+            ctx.flush();
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        failPending(new ClosedChannelException());
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        failPending(new ClosedChannelException());
+    }
+
+    private void writeFragments(final ChannelHandlerContext ctx) {
+        final ChannelOutboundBuffer buffer = ctx.channel().unsafe().outboundBuffer();
+        if (buffer == null) {
+            // Closed, the pending messages are failed when the channel becomes inactive
+            return;
+        }
+        final long high = ctx.channel().config().getWriteBufferHighWaterMark();
+        writing = true;
+        try {
+            // The writability of the channel also counts the queued bytes, so only the bytes already in the outbound buffer are checked
+            while (pending > 0 && buffer.totalPendingWriteBytes() < high) {
+                final Stream stream = streams[current];
+                for (int i = 0; i < stream.weight && !stream.queue.isEmpty() && buffer.totalPendingWriteBytes() < high; i++) {
+                    writeFragment(ctx, current, stream);
+                }
+                current = (current + 1) % streams.length;
+            }
+        } finally {
+            writing = false;
+        }
+        updateWritability(ctx);
+        if (pending > 0 && !resumeScheduled) {
+            // While the queued bytes keep the channel unwritable, no writability change tells when the outbound buffer has drained
+            resumeScheduled = true;
+            ctx.write(Unpooled.EMPTY_BUFFER).addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) {
+                    resumeScheduled = false;
+                    if (future.isSuccess()) {
+                        ctx.executor().execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (pending > 0) {
+                                    writeFragments(ctx);
+                                    ctx.flush();
+                                }
+                            }
+                        });
+                    }
+                }
+            });
+        }
+    }
+
+    private void updateWritability(ChannelHandlerContext ctx) {
+        final ChannelConfig config = ctx.channel().config();
+        final boolean unwritable;
+        if (queuedBytes > config.getWriteBufferHighWaterMark()) {
+            unwritable = true;
+        } else if (queuedBytes < config.getWriteBufferLowWaterMark()) {
+            unwritable = false;
+        } else {
+            return;
+        }
+        final ChannelOutboundBuffer buffer = ctx.channel().unsafe().outboundBuffer();
+        if (unwritable != this.unwritable && buffer != null) {
+            this.unwritable = unwritable;
+            buffer.setUserDefinedWritability(WRITABILITY_INDEX, !unwritable);
+        }
+    }
+
+    private void writeFragment(ChannelHandlerContext ctx, int id, Stream stream) {
+        final Pending message = stream.queue.peek();
+        final int length = Math.min(fragmentSize, message.frame.readableBytes());
+        final boolean last = length == message.frame.readableBytes();
+        final ByteBuf header = ctx.alloc().buffer(7);
+        header.writeByte(id);
+        header.writeByte(last ? LAST_FRAGMENT : 0);
+        ByteBufUtils.writeVarInt(header, length);
+        final ByteBuf payload = message.frame.readSlice(length).retain();
+        queuedBytes -= length;
+        // The promise of the message completes with its last fragment
+        ctx.write(Unpooled.wrappedBuffer(header, payload), last ? message.promise : ctx.voidPromise());
+        if (last) {
+            stream.queue.poll();
+            message.frame.release();
+            pending--;
+        }
+    }
+
+    private void failPending(Throwable cause) {
+        for (Stream stream : streams) {
+            Pending message;
+            while ((message = stream.queue.poll()) != null) {
+                message.frame.release();
+                message.promise.tryFailure(cause);
+            }
+        }
+        pending = 0;
+        queuedBytes = 0;
+    }
+
+    private static class Stream {
+        private final int weight;
+        private final Queue<Pending> queue = new ArrayDeque<>();
+
+        private Stream(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    private static class Pending {
+        private final ByteBuf frame;
+        private final ChannelPromise promise;
+
+        private Pending(ByteBuf frame, ChannelPromise promise) {
+            this.frame = frame;
+            this.promise = promise;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.pipeline;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DuplicatedByteBuf;
+import io.netty.util.Signal;
+
+/**
+ * A view of the bytes received so far which throws {@link #REPLAY} rather than an {@link IndexOutOfBoundsException} when a read runs past them,
+ * so that running out of bytes can be told apart from other failures, in the manner of the buffer of a {@link io.netty.handler.codec.ReplayingDecoder}.
+ * Reads move the view's own reader index, not the one of the wrapped buffer.
+ */
+class ReplayBuffer extends DuplicatedByteBuf {
+    static final Signal REPLAY = Signal.valueOf(ReplayBuffer.class.getName() + ".REPLAY");
+
+    ReplayBuffer(ByteBuf buffer) {
+        super(buffer);
+    }
+
+    private void checkReadable(int length) {
+        if (readableBytes() < length) {
+            throw REPLAY;
+        }
+    }
+
+    @Override
+    public boolean readBoolean() {
+        checkReadable(1);
+        return super.readBoolean();
+    }
+
+    @Override
+    public byte readByte() {
+        checkReadable(1);
+        return super.readByte();
+    }
+
+    @Override
+    public short readUnsignedByte() {
+        checkReadable(1);
+        return super.readUnsignedByte();
+    }
+
+    @Override
+    public short readShort() {
+        checkReadable(2);
+        return super.readShort();
+    }
+
+    @Override
+    public int readUnsignedShort() {
+        checkReadable(2);
+        return super.readUnsignedShort();
+    }
+
+    @Override
+    public int readMedium() {
+        checkReadable(3);
+        return super.readMedium();
+    }
+
+    @Override
+    public int readUnsignedMedium() {
+        checkReadable(3);
+        return super.readUnsignedMedium();
+    }
+
+    @Override
+    public int readInt() {
+        checkReadable(4);
+        return super.readInt();
+    }
+
+    @Override
+    public long readUnsignedInt() {
+        checkReadable(4);
+        return super.readUnsignedInt();
+    }
+
+    @Override
+    public long readLong() {
+        checkReadable(8);
+        return super.readLong();
+    }
+
+    @Override
+    public char readChar() {
+        checkReadable(2);
+        return super.readChar();
+    }
+
+    @Override
+    public float readFloat() {
+        checkReadable(4);
+        return super.readFloat();
+    }
+
+    @Override
+    public double readDouble() {
+        checkReadable(8);
+        return super.readDouble();
+    }
+
+    @Override
+    public ByteBuf readBytes(int length) {
+        checkReadable(length);
+        return super.readBytes(length);
+    }
+
+    @Override
+    public ByteBuf readSlice(int length) {
+        checkReadable(length);
+        return super.readSlice(length);
+    }
+
+    @Override
+    public ByteBuf readBytes(ByteBuf dst) {
+        checkReadable(dst.writableBytes());
+        return super.readBytes(dst);
+    }
+
+    @Override
+    public ByteBuf readBytes(ByteBuf dst, int length) {
+        checkReadable(length);
+        return super.readBytes(dst, length);
+    }
+
+    @Override
+    public ByteBuf readBytes(ByteBuf dst, int dstIndex, int length) {
+        checkReadable(length);
+        return super.readBytes(dst, dstIndex, length);
+    }
+
+    @Override
+    public ByteBuf readBytes(byte[] dst) {
+        checkReadable(dst.length);
+        return super.readBytes(dst);
+    }
+
+    @Override
+    public ByteBuf readBytes(byte[] dst, int dstIndex, int length) {
+        checkReadable(length);
+        return super.readBytes(dst, dstIndex, length);
+    }
+
+    @Override
+    public ByteBuf readBytes(ByteBuffer dst) {
+        checkReadable(dst.remaining());
+        return super.readBytes(dst);
+    }
+
+    @Override
+    public ByteBuf readBytes(OutputStream out, int length) throws IOException {
+        checkReadable(length);
+        return super.readBytes(out, length);
+    }
+
+    @Override
+    public int readBytes(GatheringByteChannel out, int length) throws IOException {
+        checkReadable(length);
+        return super.readBytes(out, length);
+    }
+
+    @Override
+    public ByteBuf skipBytes(int length) {
+        checkReadable(length);
+        return super.skipBytes(length);
+    }
+}
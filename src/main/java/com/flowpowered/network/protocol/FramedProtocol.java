@@ -0,0 +1,48 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.protocol;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * A {@link Protocol} whose header carries the length of the message, so that the decoder can wait for a whole frame before decoding it.
+ * <br/>
+ * For other protocols the decoder has to attempt decoding and start over when it runs out of bytes, which makes large messages split across many
+ * reads expensive to decode.
+ */
+public interface FramedProtocol extends Protocol {
+    /**
+     * Reads the length of the frame starting at the reader index of the buffer. The reader index must not be moved. The frame is then passed to
+     * {@link #readHeader(ByteBuf)} and the codec, and must contain both the header and the message.
+     * <br/>
+     * Implementations should throw if the length exceeds what the protocol allows, or the decoder will buffer the frame regardless of its size.
+     *
+     * @param buf the buffer to read from
+     * @return the length of the frame including the header, or -1 if more bytes are needed to know it
+     * @throws IOException if the header is malformed or the frame is too long
+     */
+    int getFrameLength(ByteBuf buf) throws IOException;
+}
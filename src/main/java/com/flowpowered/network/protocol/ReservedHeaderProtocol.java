@@ -0,0 +1,62 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.protocol;
+
+import io.netty.buffer.ByteBuf;
+
+import com.flowpowered.network.Codec.CodecRegistration;
+
+/**
+ * A {@link Protocol} whose header size is bounded, allowing the header to be written in front of the message in the same buffer.
+ * <br/>
+ * The encoder reserves {@link #getMaxHeaderSize()} bytes at the start of the buffer, encodes the message after them and then
+ * back-fills the header so that it ends exactly where the message starts. This avoids allocating a separate header buffer
+ * and a composite buffer for every outbound message.
+ */
+public interface ReservedHeaderProtocol extends Protocol {
+    /**
+     * Gets the largest header this protocol may write.
+     *
+     * @return the maximum header size in bytes
+     */
+    int getMaxHeaderSize();
+
+    /**
+     * Gets the exact size of the header for a message.
+     *
+     * @param codec the codec the message was written with
+     * @param length the length of the encoded message, without the header
+     * @return the header size in bytes; no more than {@link #getMaxHeaderSize()}
+     */
+    int getHeaderSize(CodecRegistration codec, int length);
+
+    /**
+     * Writes a packet header at the writer index of the buffer. Exactly {@link #getHeaderSize(CodecRegistration, int)} bytes must be written.
+     *
+     * @param buf the buffer to write the header to
+     * @param codec the codec the message was written with
+     * @param length the length of the encoded message, without the header
+     */
+    void writeHeader(ByteBuf buf, CodecRegistration codec, int length);
+}
@@ -24,6 +24,8 @@
 package com.flowpowered.network.protocol.keyed;
 
 import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -44,6 +46,11 @@ public abstract class KeyedProtocol extends AbstractProtocol {
     private final int maxPackets;
     private final ConcurrentMap<String, CodecLookupService> codecLookup;
     private final ConcurrentMap<String, HandlerLookupService> handlerLookup;
+    private volatile boolean frozen = false;
+    /**
+     * The lookup services by key, copied by {@link #freeze()}. They are immutable, so they are read without synchronization.
+     */
+    private FrozenLookups frozenLookups;
 
     /**
      * @param name
@@ -74,6 +81,10 @@ public abstract class KeyedProtocol extends AbstractProtocol {
      * @return the handler lookup service, or null if none
      */
     protected HandlerLookupService getHandlerLookupService(String key) {
+        final FrozenLookups frozenLookups = this.frozenLookups;
+        if (frozenLookups != null) {
+            return frozenLookups.handlers.get(key);
+        }
         return handlerLookup.get(key);
     }
 
@@ -83,20 +94,53 @@ public abstract class KeyedProtocol extends AbstractProtocol {
      * @return the codec lookup service, or null if none
      */
     protected CodecLookupService getCodecLookupService(String key) {
+        final FrozenLookups frozenLookups = this.frozenLookups;
+        if (frozenLookups != null) {
+            return frozenLookups.codecs.get(key);
+        }
         return codecLookup.get(key);
     }
 
-    public <M extends Message, C extends Codec<? super M>, H extends MessageHandler<?, ? super M>> CodecRegistration registerMessage(String key, Class<M> message, Class<C> codec, Class<H> handler, Integer opcode) {
+    /**
+     * Compiles the registered messages of every key into immutable lookup tables. No more messages can be registered afterwards, under any key;
+     * attempting to do so throws an {@link IllegalStateException}. Protocols which register all their messages up front should call this once done.
+     */
+    public synchronized void freeze() {
+        if (frozen) {
+            return;
+        }
+        frozen = true;
+        for (CodecLookupService service : codecLookup.values()) {
+            service.freeze();
+        }
+        for (HandlerLookupService service : handlerLookup.values()) {
+            service.freeze();
+        }
+        frozenLookups = new FrozenLookups(new HashMap<>(codecLookup), new HashMap<>(handlerLookup));
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    public synchronized <M extends Message, C extends Codec<? super M>, H extends MessageHandler<?, ? super M>> CodecRegistration registerMessage(String key, Class<M> message, Class<C> codec, Class<H> handler, Integer opcode) {
+        if (frozen) {
+            throw new IllegalStateException("Cannot register " + message.getSimpleName() + ", the protocol is frozen!");
+        }
         try {
             CodecLookupService codecLookup = this.codecLookup.get(key);
             if (codecLookup == null) {
-                codecLookup = new CodecLookupService(maxPackets);
-                this.codecLookup.put(key, codecLookup);
+                final CodecLookupService previous = this.codecLookup.putIfAbsent(key, codecLookup = new CodecLookupService(maxPackets));
+                if (previous != null) {
+                    codecLookup = previous;
+                }
             }
             HandlerLookupService handlerLookup = this.handlerLookup.get(key);
             if (handlerLookup == null) {
-                handlerLookup = new HandlerLookupService();
-                this.handlerLookup.put(key, handlerLookup);
+                final HandlerLookupService previous = this.handlerLookup.putIfAbsent(key, handlerLookup = new HandlerLookupService());
+                if (previous != null) {
+                    handlerLookup = previous;
+                }
             }
             CodecRegistration bind = codecLookup.bind(message, codec, opcode);
             if (bind != null && handler != null) {
@@ -109,4 +153,13 @@ public abstract class KeyedProtocol extends AbstractProtocol {
         }
     }
 
+    private static class FrozenLookups {
+        private final Map<String, CodecLookupService> codecs;
+        private final Map<String, HandlerLookupService> handlers;
+
+        private FrozenLookups(Map<String, CodecLookupService> codecs, Map<String, HandlerLookupService> handlers) {
+            this.codecs = codecs;
+            this.handlers = handlers;
+        }
+    }
 }
\ No newline at end of file
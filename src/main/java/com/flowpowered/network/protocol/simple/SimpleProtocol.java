@@ -91,7 +91,24 @@ public abstract class SimpleProtocol extends AbstractProtocol {
         return handlerLookup.find(message);
     }
 
-    public <M extends Message, C extends Codec<? super M>, H extends MessageHandler<?, ? super M>> CodecRegistration registerMessage(Class<M> message, Class<C> codec, Class<H> handler, Integer opcode) {
+    /**
+     * Compiles the registered messages into immutable lookup tables. No more messages can be registered afterwards; attempting to do so throws an
+     * {@link IllegalStateException}. Protocols which register all their messages up front should call this once done.
+     */
+    public synchronized void freeze() {
+        codecLookup.freeze();
+        handlerLookup.freeze();
+    }
+
+    public boolean isFrozen() {
+        return codecLookup.isFrozen();
+    }
+
+    public synchronized <M extends Message, C extends Codec<? super M>, H extends MessageHandler<?, ? super M>> CodecRegistration registerMessage(Class<M> message, Class<C> codec, Class<H> handler, Integer opcode) {
+        // Checked under the lock of freeze(), so that a message is registered in both lookups or in neither
+        if (isFrozen()) {
+            throw new IllegalStateException("Cannot register " + message.getSimpleName() + ", the protocol is frozen!");
+        }
         try {
             CodecRegistration bind = codecLookup.bind(message, codec, opcode);
             if (bind != null && handler != null) {
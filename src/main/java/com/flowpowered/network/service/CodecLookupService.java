@@ -25,36 +25,49 @@ package com.flowpowered.network.service;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.flowpowered.network.Codec;
 import com.flowpowered.network.Codec.CodecRegistration;
 import com.flowpowered.network.Message;
 import com.flowpowered.network.exception.IllegalOpcodeException;
+import com.flowpowered.network.util.ClassHierarchyCache;
 
 /**
  * A class used to lookup message codecs.
  */
 public class CodecLookupService {
+    /**
+     * The array length under which frozen opcodes are always compiled into an array.
+     */
+    private static final int MIN_DENSE_LENGTH = 256;
     /**
      * A lookup table for the Message classes mapped to their Codec.
      */
-    private final ConcurrentMap<Class<? extends Message>, CodecRegistration> messages;
+    private final ClassHierarchyCache<CodecRegistration> messages;
+    /**
+     * Lookup table for opcodes mapped to their codecs, used when no size is given. It is replaced on every bind.
+     */
+    private volatile OpcodeTable opcodes;
     /**
-     * Lookup table for opcodes mapped to their codecs.
+     * Lookup table for opcodes mapped to their codecs, indexed by opcode, used when a size is given.
      */
-    private final ConcurrentMap<Integer, Codec> opcodes;
-    private final Codec[] opcodeTable;
+    private final Codec<?>[] opcodeTable;
     /**
      * Stores the next opcode available.
      */
     private final AtomicInteger nextId;
+    private volatile boolean frozen = false;
+    /**
+     * The opcode table compiled by {@link #freeze()}. It is immutable, so it is read without synchronization.
+     */
+    private FrozenOpcodes frozenOpcodes;
      
     /**
      * The {@link CodecLookupService} stores the codecs available in the protocol. Codecs can be found using either the class of the message they represent or their message's opcode.
-     * If the provided size is 0 then a map for the opcode->Codec mapping; otherwise, an array will be used.
+     * If the provided size is 0 then a hash table is used for the opcode->Codec mapping, which allows any opcode; otherwise, an array will be used,
+     * which only allows opcodes less than the size.
      * 
      * @param size 0 for map, otherwise the array size
      */
@@ -62,12 +75,12 @@ public class CodecLookupService {
         if (size < 0) {
             throw new IllegalArgumentException("Size cannot be less than 0!");
         }
-        messages = new ConcurrentHashMap<>();
+        messages = new ClassHierarchyCache<>();
         if (size == 0) {
-            opcodes = new ConcurrentHashMap<>();
+            opcodes = new OpcodeTable();
             opcodeTable = null;
         } else {
-            opcodeTable = new Codec[size];
+            opcodeTable = new Codec<?>[size];
             opcodes = null;
         }
         nextId = new AtomicInteger(0);
@@ -87,11 +100,14 @@ public class CodecLookupService {
      * @throws IllegalAccessException if the codec could not be instantiated due to an access violation.
      */
     @SuppressWarnings("unchecked")
-    public <M extends Message, C extends Codec<? super M>> CodecRegistration bind(Class<M> messageClazz, Class<C> codecClazz, Integer opcode) throws InstantiationException, IllegalAccessException, InvocationTargetException {
-        CodecRegistration reg = messages.get(messageClazz);
+    public synchronized <M extends Message, C extends Codec<? super M>> CodecRegistration bind(Class<M> messageClazz, Class<C> codecClazz, Integer opcode) throws InstantiationException, IllegalAccessException, InvocationTargetException {
+        CodecRegistration reg = messages.getExact(messageClazz);
         if (reg != null) {
             return reg;
         }
+        if (frozen) {
+            throw new IllegalStateException("Cannot bind " + messageClazz.getSimpleName() + ", the codec lookup service is frozen!");
+        }
         C codec;
         try {
             Constructor<C> con = codecClazz.getConstructor();
@@ -104,15 +120,17 @@ public class CodecLookupService {
             if (opcode < 0) {
                 throw new IllegalArgumentException("Opcode must either be null or greater than or equal to 0!");
             }
+            if (opcodeTable != null && opcode >= opcodeTable.length) {
+                throw new IllegalArgumentException("Opcode " + opcode + " is out of range! It must be less than " + opcodeTable.length + ".");
+            }
         } else {
             int id;
-            try {
-                do {
-                    id = nextId.getAndIncrement();
-                } while (get(id) != null);
-            } catch (IndexOutOfBoundsException ioobe) {
-                throw new IllegalStateException("Ran out of Ids!", ioobe);
-            }
+            do {
+                id = nextId.getAndIncrement();
+                if (opcodeTable != null && id >= opcodeTable.length) {
+                    throw new IllegalStateException("Ran out of Ids!");
+                }
+            } while (get(id) != null);
             opcode = id;
         }
         Codec<?> previous = get(opcode);
@@ -125,26 +143,58 @@ public class CodecLookupService {
         return reg;
     }
 
-    private Codec<?> get(int opcode) throws ArrayIndexOutOfBoundsException {
-        if (opcodeTable != null && opcodes == null) {
-            return opcodeTable[opcode];
-        } else if (opcodes != null && opcodeTable == null) {
-            return opcodes.get(opcode);
-        } else {
-            throw new IllegalStateException("One and only one codec storage system must be in use!");
+    private Codec<?> get(int opcode) {
+        final FrozenOpcodes frozenOpcodes = this.frozenOpcodes;
+        if (frozenOpcodes != null) {
+            return frozenOpcodes.get(opcode);
         }
+        final Codec<?>[] opcodeTable = this.opcodeTable;
+        if (opcodeTable != null) {
+            return opcode >= 0 && opcode < opcodeTable.length ? opcodeTable[opcode] : null;
+        }
+        return opcodes.get(opcode);
     }
 
     private void put(int opcode, Codec<?> codec) {
-        if (opcodeTable != null && opcodes == null) {
+        if (opcodeTable != null) {
             opcodeTable[opcode] = codec;
-        } else if (opcodes != null && opcodeTable == null) {
-            opcodes.put(opcode, codec);
         } else {
-            throw new IllegalStateException("One and only one codec storage system must be in use!");
+            opcodes = opcodes.with(opcode, codec);
         }
     }
 
+    /**
+     * Prevents any more codecs from being bound, and compiles the opcodes into an array indexed by opcode if they are dense enough. Lookups made
+     * afterwards read immutable tables only.
+     */
+    public synchronized void freeze() {
+        if (frozen) {
+            return;
+        }
+        frozen = true;
+        messages.freeze();
+        if (opcodeTable != null) {
+            int length = opcodeTable.length;
+            while (length > 0 && opcodeTable[length - 1] == null) {
+                length--;
+            }
+            frozenOpcodes = new FrozenOpcodes(Arrays.copyOf(opcodeTable, length), null);
+        } else {
+            final OpcodeTable opcodes = this.opcodes;
+            final int length = opcodes.maxOpcode() + 1;
+            // Only use an array if it would be mostly full; sparse opcodes stay in the hash table
+            if (length <= Math.max(MIN_DENSE_LENGTH, opcodes.size() * 2)) {
+                frozenOpcodes = new FrozenOpcodes(opcodes.toArray(length), null);
+            } else {
+                frozenOpcodes = new FrozenOpcodes(null, opcodes);
+            }
+        }
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
     /**
      * Retrieves the {@link Codec} from the lookup table
      *
@@ -153,19 +203,15 @@ public class CodecLookupService {
      * @throws IllegalOpcodeException if the opcode is not bound 
      */
     public Codec<?> find(int opcode) throws IllegalOpcodeException {
-        try {
-            Codec<?> c = get(opcode);
-            if (c == null) {
-                throw new NullPointerException();
-            }
-            return c;
-        } catch (ArrayIndexOutOfBoundsException | NullPointerException e) {
+        final Codec<?> c = get(opcode);
+        if (c == null) {
             throw new IllegalOpcodeException("Opcode " + opcode + " is not bound!");
         }
+        return c;
     }
 
     /**
-     * Finds a codec by message class.
+     * Finds a codec by message class. If the class itself isn't bound, the codec of its closest bound superclass or interface is used.
      *
      * @param clazz The message class.
      * @param <M> The type of message.
@@ -173,11 +219,28 @@ public class CodecLookupService {
      */
     @SuppressWarnings("unchecked")
     public <M extends Message> CodecRegistration find(Class<M> clazz) {
-        return messages.get(clazz);
+        return messages.find(clazz);
+    }
+
+    private static class FrozenOpcodes {
+        private final Codec<?>[] dense;
+        private final OpcodeTable sparse;
+
+        private FrozenOpcodes(Codec<?>[] dense, OpcodeTable sparse) {
+            this.dense = dense;
+            this.sparse = sparse;
+        }
+
+        private Codec<?> get(int opcode) {
+            if (dense != null) {
+                return opcode >= 0 && opcode < dense.length ? dense[opcode] : null;
+            }
+            return sparse.get(opcode);
+        }
     }
 
     @Override
     public String toString() {
-        return "CodecLookupService{" + "messages=" + messages + ", opcodes=" + opcodes + '}';
+        return "CodecLookupService{" + "messages=" + messages + ", opcodes=" + (opcodeTable != null ? Arrays.toString(opcodeTable) : opcodes) + '}';
     }
 }
@@ -25,20 +25,40 @@ package com.flowpowered.network.service;
 
 import com.flowpowered.network.MessageHandler;
 import com.flowpowered.network.Message;
-import java.util.HashMap;
-import java.util.Map;
+import com.flowpowered.network.util.ClassHierarchyCache;
 
+/**
+ * A class used to lookup message handlers. It is safe to bind handlers while messages are being handled.
+ */
 public class HandlerLookupService {
-    private final Map<Class<? extends Message>, MessageHandler<?, ?>> handlers = new HashMap<>();
+    private final ClassHierarchyCache<MessageHandler<?, ?>> handlers = new ClassHierarchyCache<>();
 
     public <M extends Message, H extends MessageHandler<?, ? super M>> void bind(Class<M> clazz, Class<H> handlerClass) throws InstantiationException, IllegalAccessException {
         MessageHandler<?, ? super M> handler = handlerClass.newInstance();
         handlers.put(clazz, handler);
     }
 
+    /**
+     * Finds a handler by message class. If the class itself isn't bound, the handler of its closest bound superclass or interface is used.
+     *
+     * @param clazz The message class.
+     * @param <M> The type of message.
+     * @return The handler, or {@code null} if it could not be found.
+     */
     @SuppressWarnings("unchecked")
     public <M extends Message> MessageHandler<?, M> find(Class<M> clazz) {
-        return (MessageHandler<?, M>) handlers.get(clazz);
+        return (MessageHandler<?, M>) handlers.find(clazz);
+    }
+
+    /**
+     * Prevents any more handlers from being bound.
+     */
+    public void freeze() {
+        handlers.freeze();
+    }
+
+    public boolean isFrozen() {
+        return handlers.isFrozen();
     }
 
     @Override
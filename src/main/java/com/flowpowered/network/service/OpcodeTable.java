@@ -0,0 +1,171 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.service;
+
+import java.util.Arrays;
+
+import com.flowpowered.network.Codec;
+
+/**
+ * An immutable open-addressing table of opcodes to codecs. Adding a codec creates a new table, so that a table can be read from any thread once
+ * published without locking and without boxing the opcode.
+ */
+final class OpcodeTable {
+    /**
+     * Marks an empty slot; opcodes are never negative.
+     */
+    private static final int EMPTY = -1;
+    private static final int INITIAL_CAPACITY = 16;
+    private final int[] keys;
+    private final Codec<?>[] values;
+    private final int size;
+
+    OpcodeTable() {
+        this(newKeys(INITIAL_CAPACITY), new Codec<?>[INITIAL_CAPACITY], 0);
+    }
+
+    private OpcodeTable(int[] keys, Codec<?>[] values, int size) {
+        this.keys = keys;
+        this.values = values;
+        this.size = size;
+    }
+
+    /**
+     * Gets the codec bound to an opcode.
+     *
+     * @param opcode the opcode
+     * @return the codec, or null if none is bound
+     */
+    Codec<?> get(int opcode) {
+        if (opcode < 0) {
+            return null;
+        }
+        final int[] keys = this.keys;
+        final int mask = keys.length - 1;
+        int i = index(opcode, mask);
+        while (true) {
+            final int key = keys[i];
+            if (key == opcode) {
+                return values[i];
+            }
+            if (key == EMPTY) {
+                return null;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Creates a copy of this table with the opcode bound to the codec, replacing any previous binding.
+     *
+     * @param opcode the opcode, greater than or equal to 0
+     * @param codec the codec
+     * @return the new table
+     */
+    OpcodeTable with(int opcode, Codec<?> codec) {
+        final boolean replace = get(opcode) != null;
+        final int newSize = replace ? size : size + 1;
+        int capacity = keys.length;
+        // Keep the load factor at or under one half so that probe sequences stay short
+        while (newSize * 2 > capacity) {
+            capacity <<= 1;
+        }
+        final int[] newKeys = newKeys(capacity);
+        final Codec<?>[] newValues = new Codec<?>[capacity];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                insert(newKeys, newValues, keys[i], values[i]);
+            }
+        }
+        insert(newKeys, newValues, opcode, codec);
+        return new OpcodeTable(newKeys, newValues, newSize);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the largest bound opcode.
+     *
+     * @return the largest opcode, or -1 if the table is empty
+     */
+    int maxOpcode() {
+        int max = EMPTY;
+        for (int key : keys) {
+            max = Math.max(max, key);
+        }
+        return max;
+    }
+
+    /**
+     * Copies the table into an array indexed by opcode.
+     *
+     * @param length the length of the array, greater than the largest opcode
+     * @return the array
+     */
+    Codec<?>[] toArray(int length) {
+        final Codec<?>[] array = new Codec<?>[length];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                array[keys[i]] = values[i];
+            }
+        }
+        return array;
+    }
+
+    private static void insert(int[] keys, Codec<?>[] values, int opcode, Codec<?> codec) {
+        final int mask = keys.length - 1;
+        int i = index(opcode, mask);
+        while (keys[i] != EMPTY && keys[i] != opcode) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = opcode;
+        values[i] = codec;
+    }
+
+    private static int index(int opcode, int mask) {
+        return (opcode ^ (opcode >>> 16)) & mask;
+    }
+
+    private static int[] newKeys(int capacity) {
+        final int[] keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        return keys;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                if (builder.length() > 1) {
+                    builder.append(", ");
+                }
+                builder.append(keys[i]).append('=').append(values[i]);
+            }
+        }
+        return builder.append('}').toString();
+    }
+}
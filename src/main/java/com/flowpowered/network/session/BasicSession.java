@@ -25,18 +25,27 @@ package com.flowpowered.network.session;
 
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.flowpowered.network.DroppableMessage;
 import com.flowpowered.network.Message;
 import com.flowpowered.network.MessageHandler;
 import com.flowpowered.network.exception.ChannelClosedException;
+import com.flowpowered.network.pipeline.MessageEncoder;
+import com.flowpowered.network.pipeline.MultiplexEncoder;
 import com.flowpowered.network.processor.MessageProcessor;
 import com.flowpowered.network.protocol.AbstractProtocol;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelConfig;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelOption;
-import io.netty.util.concurrent.Future;
-import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.channel.ChannelPipeline;
 import org.slf4j.Logger;
 
 /**
@@ -59,6 +68,42 @@ public class BasicSession implements Session {
      * The protocol for this session
      */
     private AbstractProtocol protocol;
+    /**
+     * Reports failed writes to {@link #onOutboundThrowable(Throwable)}. Shared by all of them, so that sending doesn't allocate a listener. Writes
+     * need a real promise for this, as Netty drops the I/O errors of the transport for writes with a void promise.
+     */
+    private final ChannelFutureListener outboundListener = new ChannelFutureListener() {
+        @Override
+        public void operationComplete(ChannelFuture future) throws Exception {
+            if (future.cause() != null) {
+                onOutboundThrowable(future.cause());
+            }
+        }
+    };
+
+    /**
+     * Whether {@link DroppableMessage}s are dropped by {@link #send(Message)} while the session is unwritable
+     */
+    private volatile boolean dropWhenUnwritable = false;
+    private final AtomicLong droppedMessages = new AtomicLong();
+    /**
+     * How long the session may stay unwritable before it is disconnected, in nanoseconds, or 0 if indefinitely
+     */
+    private volatile long unwritableTimeoutNanos = 0;
+    /**
+     * The disconnect scheduled when the session became unwritable. Only accessed from the event loop.
+     */
+    private ScheduledFuture<?> unwritableDisconnect;
+    private final Runnable unwritableDisconnectTask = new Runnable() {
+        @Override
+        public void run() {
+            unwritableDisconnect = null;
+            if (!channel.isWritable()) {
+                getLogger().warn("Disconnecting " + BasicSession.this + " as it hasn't kept up with the messages sent to it");
+                disconnect();
+            }
+        }
+    };
 
     /**
      * Creates a new session.
@@ -84,23 +129,108 @@ public class BasicSession implements Session {
         }
     }
 
+    /**
+     * Sends a message and returns the future of the write, for callers which need to know when it completes. Failures are also reported to
+     * {@link #onOutboundThrowable(Throwable)}.
+     *
+     * @param message the message
+     * @return the future of the write
+     * @throws ChannelClosedException if the session is inactive
+     */
     public ChannelFuture sendWithFuture(Message message) throws ChannelClosedException {
         if (!channel.isActive()) {
             throw new ChannelClosedException("Trying to send a message when a session is inactive!");
         }
-        return channel.writeAndFlush(message).addListener(new GenericFutureListener<Future<? super Void>>() {
-            @Override
-            public void operationComplete(Future<? super Void> future) throws Exception {
-                if (future.cause() != null) {
-                    onOutboundThrowable(future.cause());
-                }
-            }
-        });
+        return channel.writeAndFlush(message).addListener(outboundListener);
+    }
+
+    /**
+     * Writes a message without flushing it. The message is only sent once {@link #flush()} is called.
+     *
+     * @param message the message
+     * @throws ChannelClosedException if the session is inactive
+     */
+    protected void write(Message message) throws ChannelClosedException {
+        if (!channel.isActive()) {
+            throw new ChannelClosedException("Trying to send a message when a session is inactive!");
+        }
+        channel.write(message).addListener(outboundListener);
+    }
+
+    /**
+     * Writes and flushes an already encoded frame, bypassing the message encoder.
+     *
+     * @param frame the frame, released once written
+     */
+    void sendFrame(ByteBuf frame) {
+        channel.writeAndFlush(frame).addListener(outboundListener);
+    }
+
+    /**
+     * Checks whether the pipeline encodes messages, so that already encoded frames can be sent with {@link #sendFrame(ByteBuf)}. Channels with
+     * message passthrough have no encoder and can only be sent messages.
+     *
+     * @return whether the pipeline has an encoder
+     */
+    boolean acceptsFrames() {
+        final ChannelPipeline pipeline = channel.pipeline();
+        return pipeline.get(MessageEncoder.class) != null || pipeline.get(MultiplexEncoder.class) != null;
+    }
+
+    /**
+     * Flushes the messages written with {@link #write(Message)}.
+     */
+    protected void flush() {
+        channel.flush();
+    }
+
+    /**
+     * Sends a message only if the session is writable, so that it isn't buffered in memory behind data that the other end hasn't read yet.
+     *
+     * @param message the message
+     * @return whether the message was sent
+     * @throws ChannelClosedException if the session is inactive
+     */
+    public boolean trySend(Message message) throws ChannelClosedException {
+        if (!channel.isActive()) {
+            throw new ChannelClosedException("Trying to send a message when a session is inactive!");
+        }
+        if (!channel.isWritable()) {
+            return false;
+        }
+        channel.writeAndFlush(message).addListener(outboundListener);
+        return true;
     }
 
+    /**
+     * Sends a message without returning the future of the write. Failures are reported to {@link #onOutboundThrowable(Throwable)}.
+     *
+     * @param message the message
+     * @throws ChannelClosedException if the session is inactive
+     */
     @Override
     public void send(Message message) throws ChannelClosedException {
-        sendWithFuture(message);
+        if (dropIfUnwritable(message)) {
+            return;
+        }
+        if (!channel.isActive()) {
+            throw new ChannelClosedException("Trying to send a message when a session is inactive!");
+        }
+        channel.writeAndFlush(message).addListener(outboundListener);
+    }
+
+    /**
+     * Checks whether a message is to be dropped rather than sent, see {@link #setDropWhenUnwritable(boolean)}.
+     *
+     * @param message the message
+     * @return whether the message was dropped
+     */
+    protected boolean dropIfUnwritable(Message message) {
+        if (dropWhenUnwritable && message instanceof DroppableMessage && !channel.isWritable()) {
+            droppedMessages.incrementAndGet();
+            return true;
+        }
+        return false;
     }
 
     @Override
@@ -139,6 +269,19 @@ public class BasicSession implements Session {
         handleMessage(message);
     }
 
+    /**
+     * Passes the messages decoded from one read of the channel for processing, in order. Only called when batching is enabled on the
+     * {@link com.flowpowered.network.pipeline.MessageHandler}. The list is reused, so it must not be kept after the call. Handles the messages
+     * one by one by default.
+     *
+     * @param messages the messages
+     */
+    public void messagesReceived(List<? extends Message> messages) {
+        for (int i = 0; i < messages.size(); i++) {
+            messageReceived(messages.get(i));
+        }
+    }
+
     public String getSessionId() {
         return sessionId;
     }
@@ -183,10 +326,109 @@ public class BasicSession implements Session {
     public void onReady() {
     }
 
+    /**
+     * Called when the session becomes writable or unwritable, as the amount of data waiting to be written crosses the write buffer watermarks.
+     * Sending while unwritable still works, but the data is buffered in memory until the other end catches up.
+     * <br/>
+     * Schedules or cancels the disconnect set by {@link #setUnwritableTimeout(long, TimeUnit)}. Called on the event loop. Subclasses overriding
+     * this method must call it.
+     *
+     * @param writable whether the session is writable
+     */
+    public void onWritabilityChanged(boolean writable) {
+        if (writable) {
+            if (unwritableDisconnect != null) {
+                unwritableDisconnect.cancel(false);
+                unwritableDisconnect = null;
+            }
+        } else {
+            final long timeout = unwritableTimeoutNanos;
+            if (timeout > 0 && unwritableDisconnect == null) {
+                unwritableDisconnect = channel.eventLoop().schedule(unwritableDisconnectTask, timeout, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    public boolean isWritable() {
+        return channel.isWritable();
+    }
+
+    /**
+     * Sets the write buffer watermarks of the session. It becomes unwritable once more than {@code high} bytes are waiting to be written, and
+     * writable again once they drop under {@code low}.
+     *
+     * @param low the low watermark in bytes
+     * @param high the high watermark in bytes
+     */
+    public void setWriteBufferWatermarks(int low, int high) {
+        setWriteBufferWatermarks(channel.config(), low, high);
+    }
+
+    /**
+     * Sets the watermarks of a channel in an order its config accepts, since it rejects a high watermark below the low one at every step.
+     *
+     * @param config the config of the channel
+     * @param low the low watermark in bytes
+     * @param high the high watermark in bytes
+     */
+    public static void setWriteBufferWatermarks(ChannelConfig config, int low, int high) {
+        if (low < 0 || high < low) {
+            throw new IllegalArgumentException("Invalid write buffer watermarks: low " + low + ", high " + high);
+        }
+        if (high >= config.getWriteBufferLowWaterMark()) {
+            config.setWriteBufferHighWaterMark(high);
+            config.setWriteBufferLowWaterMark(low);
+        } else {
+            config.setWriteBufferLowWaterMark(low);
+            config.setWriteBufferHighWaterMark(high);
+        }
+    }
+
+    public boolean isDropWhenUnwritable() {
+        return dropWhenUnwritable;
+    }
+
+    /**
+     * Sets whether {@link DroppableMessage}s are dropped rather than sent while the session is unwritable. Other messages are always sent.
+     *
+     * @param dropWhenUnwritable whether to drop droppable messages
+     */
+    public void setDropWhenUnwritable(boolean dropWhenUnwritable) {
+        this.dropWhenUnwritable = dropWhenUnwritable;
+    }
+
+    /**
+     * Gets the number of messages dropped because the session was unwritable.
+     *
+     * @return the number of dropped messages
+     */
+    public long getDroppedMessageCount() {
+        return droppedMessages.get();
+    }
+
+    /**
+     * Sets how long the session may stay unwritable before it is disconnected, so that a client which stops reading can't make the server
+     * buffer messages for it indefinitely. Only applies from the next time the session becomes unwritable.
+     *
+     * @param timeout the grace period, or 0 to never disconnect
+     * @param unit the unit of the grace period
+     */
+    public void setUnwritableTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Unwritable timeout cannot be negative: " + timeout);
+        }
+        this.unwritableTimeoutNanos = unit.toNanos(timeout);
+    }
+
     @Override
     public void onInboundThrowable(Throwable throwable) {
     }
 
+    /**
+     * Called when a throwable is thrown in the pipeline during outbound operations, such as encoding a message.
+     *
+     * @param throwable the throwable
+     */
     public void onOutboundThrowable(Throwable throwable) {
     }
 
@@ -0,0 +1,99 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.session;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import io.netty.buffer.ByteBuf;
+
+import com.flowpowered.network.Message;
+import com.flowpowered.network.exception.ChannelClosedException;
+import com.flowpowered.network.pipeline.MessageEncoder;
+import com.flowpowered.network.protocol.Protocol;
+
+/**
+ * Sends a message to many sessions, encoding it only once per protocol.
+ * <br/>
+ * The message is encoded into a frame with {@link MessageEncoder#encodeFrame(io.netty.buffer.ByteBufAllocator, Protocol, Message)}, and each
+ * session is written a duplicate of the frame sharing its memory. A session with a {@link com.flowpowered.network.processor.MessageProcessor}
+ * still processes the frame on its own, as it would after encoding the message itself. Frames are written immediately, regardless of the state of
+ * a {@link PulsingSession}. Sessions whose channel has no encoder, because of message passthrough, are sent the message with
+ * {@link BasicSession#send(Message)} instead.
+ */
+public class Broadcaster {
+    private Broadcaster() {
+    }
+
+    /**
+     * Sends a message to every active session.
+     *
+     * @param message the message
+     * @param sessions the sessions to send the message to
+     * @throws IOException if the message can't be encoded for the protocol of one of the sessions
+     */
+    public static void broadcast(Message message, Iterable<? extends BasicSession> sessions) throws IOException {
+        final Map<Protocol, ByteBuf> frames = new IdentityHashMap<>();
+        try {
+            for (BasicSession session : sessions) {
+                if (!session.isActive()) {
+                    continue;
+                }
+                if (!session.acceptsFrames()) {
+                    try {
+                        session.send(message);
+                    } catch (ChannelClosedException ignored) {
+                        // Closed since it was checked, like any other inactive session
+                    }
+                    continue;
+                }
+                session.sendFrame(getFrame(frames, session, message).duplicate().retain());
+            }
+        } finally {
+            for (ByteBuf frame : frames.values()) {
+                frame.release();
+            }
+        }
+    }
+
+    /**
+     * Gets the frame for the protocol of a session, encoding the message if the protocol has no frame yet.
+     *
+     * @param frames the frames encoded so far, by protocol
+     * @param session the session
+     * @param message the message
+     * @return the frame, owned by the map
+     * @throws IOException if the message can't be encoded
+     */
+    static ByteBuf getFrame(Map<Protocol, ByteBuf> frames, BasicSession session, Message message) throws IOException {
+        final Protocol protocol = session.getProtocol();
+        ByteBuf frame = frames.get(protocol);
+        if (frame == null) {
+            frame = MessageEncoder.encodeFrame(session.getChannel().alloc(), protocol, message);
+            frames.put(protocol, frame);
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.session;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.flowpowered.network.ConflatableMessage;
+import com.flowpowered.network.Message;
+
+/**
+ * A thread safe FIFO queue of messages in which, while conflation is enabled, a {@link ConflatableMessage} replaces the message of the same class
+ * and key still in the queue, taking its place. The order of the other messages is kept.
+ */
+class ConflatingQueue extends AbstractQueue<Message> {
+    private final ArrayDeque<Slot> slots = new ArrayDeque<>();
+    /**
+     * The slot of each conflatable message in the queue, by class and then key
+     */
+    private final Map<Class<?>, Map<Object, Slot>> keyed = new HashMap<>();
+    /**
+     * The number of messages in this queue and any other queue sharing the counter, readable without taking the lock of any of them
+     */
+    private final AtomicInteger pending;
+    private volatile boolean conflating = false;
+    private long conflated = 0;
+
+    /**
+     * Creates a queue counting its messages in a counter which may be shared with other queues.
+     *
+     * @param pending the counter
+     */
+    ConflatingQueue(AtomicInteger pending) {
+        this.pending = pending;
+    }
+
+    public boolean isConflating() {
+        return conflating;
+    }
+
+    public void setConflating(boolean conflating) {
+        this.conflating = conflating;
+    }
+
+    /**
+     * Gets the number of messages which have been replaced by newer ones.
+     *
+     * @return the number of conflated messages
+     */
+    public synchronized long getConflatedCount() {
+        return conflated;
+    }
+
+    @Override
+    public synchronized boolean offer(Message message) {
+        if (message == null) {
+            throw new NullPointerException("message");
+        }
+        if (!conflating || !(message instanceof ConflatableMessage)) {
+            slots.add(new Slot(message, null));
+            pending.incrementAndGet();
+            return true;
+        }
+        final Object key = ((ConflatableMessage) message).getConflationKey();
+        if (key == null) {
+            slots.add(new Slot(message, null));
+            pending.incrementAndGet();
+            return true;
+        }
+        Map<Object, Slot> byKey = keyed.get(message.getClass());
+        if (byKey == null) {
+            byKey = new HashMap<>();
+            keyed.put(message.getClass(), byKey);
+        }
+        final Slot slot = byKey.get(key);
+        if (slot != null) {
+            slot.message = message;
+            conflated++;
+            return true;
+        }
+        final Slot added = new Slot(message, key);
+        byKey.put(key, added);
+        slots.add(added);
+        pending.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public synchronized Message poll() {
+        final Slot slot = slots.poll();
+        if (slot == null) {
+            return null;
+        }
+        pending.decrementAndGet();
+        if (slot.key != null) {
+            final Map<Object, Slot> byKey = keyed.get(slot.message.getClass());
+            if (byKey != null && byKey.get(slot.key) == slot) {
+                byKey.remove(slot.key);
+            }
+        }
+        return slot.message;
+    }
+
+    @Override
+    public synchronized Message peek() {
+        final Slot slot = slots.peek();
+        return slot != null ? slot.message : null;
+    }
+
+    @Override
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return slots.isEmpty();
+    }
+
+    @Override
+    public synchronized void clear() {
+        pending.addAndGet(-slots.size());
+        slots.clear();
+        keyed.clear();
+    }
+
+    /**
+     * Iterates over a snapshot of the queue. Removal is not supported.
+     *
+     * @return the iterator
+     */
+    @Override
+    public synchronized Iterator<Message> iterator() {
+        final List<Message> snapshot = new ArrayList<>(slots.size());
+        for (Slot slot : slots) {
+            snapshot.add(slot.message);
+        }
+        final Iterator<Message> iterator = snapshot.iterator();
+        return new Iterator<Message>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Message next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("ConflatingQueue iterators are read only");
+            }
+        };
+    }
+
+    private static class Slot {
+        private Message message;
+        /**
+         * The conflation key, or null if the message was queued without conflation
+         */
+        private final Object key;
+
+        private Slot(Message message, Object key) {
+            this.message = message;
+            this.key = key;
+        }
+    }
+}
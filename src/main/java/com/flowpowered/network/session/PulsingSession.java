@@ -23,29 +23,94 @@
  */
 package com.flowpowered.network.session;
 
-import java.util.ArrayDeque;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.flowpowered.network.AsyncableMessage;
+import com.flowpowered.network.ConflatableMessage;
 import io.netty.channel.Channel;
 
 import com.flowpowered.network.Message;
+import com.flowpowered.network.MessagePriority;
+import com.flowpowered.network.PrioritizedMessage;
 import com.flowpowered.network.exception.ChannelClosedException;
+import com.flowpowered.network.pipeline.MessageHandler;
 import com.flowpowered.network.protocol.AbstractProtocol;
 
 /**
  * Represents a {@link BasicSession} which has both a {@link State} and {@link SendType}. It can queue messages if needed.
+ * <br/>
+ * Incoming messages are queued by the network thread and handled by the thread calling {@link #pulse()}. The queue can be bounded with
+ * {@link #setInboundCapacity(int)}, and what happens once it is full is decided by the {@link OverflowPolicy}. A single pulse can be limited
+ * to a number of messages and to a time budget, leaving the rest queued for the next pulse.
+ * <br/>
+ * Queued outgoing messages are written by a single task on the channel's event loop and flushed once per pulse, optionally limited to a number of
+ * bytes per pulse, and left queued while the session is unwritable. With {@link #setBatchQueuedSends(boolean)}, messages sent with {@link SendType#QUEUE} are always queued until the next pulse,
+ * even when the session is open. With {@link #setConflateQueuedSends(boolean)}, newer {@link ConflatableMessage}s replace the queued ones they
+ * supersede.
+ * <br/>
+ * Each {@link MessagePriority} has its own send queue. The queues are drained by weight, except for control messages, which skip them.
  */
 public class PulsingSession extends BasicSession {
     /**
-     * A queue of incoming and unprocessed messages
+     * A queue of incoming and unprocessed messages. Written by the network thread and read by the pulsing thread.
      */
-    private final Queue<Message> messageQueue = new ArrayDeque<>();
+    private final Queue<Message> messageQueue = new ConcurrentLinkedQueue<>();
     /**
-     * A queue of outgoing messages that will be sent after the client finishes identification
+     * The number of messages in the message queue, since the queue itself can't count them in constant time
      */
-    private final Queue<Message> sendQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedMessages = new AtomicInteger();
+    /**
+     * The maximum number of messages queued before the overflow policy applies
+     */
+    private volatile int inboundCapacity = Integer.MAX_VALUE;
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DISCONNECT;
+    /**
+     * Whether reading was suspended by the {@link OverflowPolicy#BACKPRESSURE} policy. Only changed while holding {@link #readLock}, together
+     * with the auto read setting of the channel.
+     */
+    private volatile boolean readSuspended = false;
+    private final Object readLock = new Object();
+    private volatile int maxMessagesPerPulse = Integer.MAX_VALUE;
+    /**
+     * The time budget of a pulse in nanoseconds, or 0 if unlimited
+     */
+    private volatile long maxPulseNanos = 0;
+    private static final MessagePriority[] PRIORITIES = MessagePriority.values();
+    /**
+     * The queues of outgoing messages waiting for the session to be open and writable, or for the next pulse, by priority
+     */
+    private final ConflatingQueue[] sendQueues = new ConflatingQueue[PRIORITIES.length];
+    /**
+     * The number of messages in all the send queues, so that senders can check for queued messages without taking the locks of the queues
+     */
+    private final AtomicInteger queuedSends = new AtomicInteger();
+    private volatile int[] priorityWeights = new int[PRIORITIES.length];
+    /**
+     * The weighted queue being drained and the number of messages it may still write in its turn. Only accessed from the event loop.
+     */
+    private int drainIndex = 0;
+    private int drainCredit = 0;
+    /**
+     * Whether a task to write the send queue is scheduled on the event loop and hasn't started yet
+     */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled.set(false);
+            flushSendQueue();
+        }
+    };
+    private volatile boolean batchQueuedSends = false;
+    /**
+     * The maximum number of bytes written from the send queue per pulse, or 0 if unlimited
+     */
+    private volatile int maxBytesPerPulse = 0;
     /**
      * The current state.
      */
@@ -58,6 +123,10 @@ public class PulsingSession extends BasicSession {
      */
     public PulsingSession(Channel channel, AbstractProtocol bootstrapProtocol) {
         super(channel, bootstrapProtocol);
+        for (MessagePriority priority : PRIORITIES) {
+            sendQueues[priority.ordinal()] = new ConflatingQueue(queuedSends);
+            priorityWeights[priority.ordinal()] = priority.getDefaultWeight();
+        }
     }
 
     /**
@@ -78,17 +147,296 @@ public class PulsingSession extends BasicSession {
         this.state = state;
     }
 
+    /**
+     * Gets the maximum number of messages that can be queued before the {@link OverflowPolicy} applies.
+     *
+     * @return the inbound capacity
+     */
+    public int getInboundCapacity() {
+        return inboundCapacity;
+    }
+
+    /**
+     * Sets the maximum number of messages that can be queued before the {@link OverflowPolicy} applies. Unbounded by default.
+     *
+     * @param inboundCapacity the inbound capacity
+     */
+    public void setInboundCapacity(int inboundCapacity) {
+        if (inboundCapacity <= 0) {
+            throw new IllegalArgumentException("Inbound capacity must be positive: " + inboundCapacity);
+        }
+        this.inboundCapacity = inboundCapacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Sets what to do when a message is received while the queue is full. {@link OverflowPolicy#DISCONNECT} by default.
+     *
+     * @param overflowPolicy the overflow policy
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("Overflow policy cannot be null");
+        }
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public int getMaxMessagesPerPulse() {
+        return maxMessagesPerPulse;
+    }
+
+    /**
+     * Sets the maximum number of incoming messages handled by a single pulse. Unlimited by default.
+     *
+     * @param maxMessagesPerPulse the maximum number of messages
+     */
+    public void setMaxMessagesPerPulse(int maxMessagesPerPulse) {
+        if (maxMessagesPerPulse <= 0) {
+            throw new IllegalArgumentException("Max messages per pulse must be positive: " + maxMessagesPerPulse);
+        }
+        this.maxMessagesPerPulse = maxMessagesPerPulse;
+    }
+
+    /**
+     * Sets the time budget of a single pulse for handling incoming messages. The budget is checked after each message, so a slow handler can
+     * exceed it. Unlimited by default.
+     *
+     * @param time the time budget, or 0 for unlimited
+     * @param unit the unit of the time budget
+     */
+    public void setMaxPulseTime(long time, TimeUnit unit) {
+        if (time < 0) {
+            throw new IllegalArgumentException("Max pulse time cannot be negative: " + time);
+        }
+        this.maxPulseNanos = unit.toNanos(time);
+    }
+
+    /**
+     * Gets the number of incoming messages waiting to be handled.
+     *
+     * @return the number of queued messages
+     */
+    public int getQueuedMessageCount() {
+        return queuedMessages.get();
+    }
+
+    public boolean isBatchQueuedSends() {
+        return batchQueuedSends;
+    }
+
+    /**
+     * Sets whether messages sent with {@link SendType#QUEUE} wait for the next pulse to be written and flushed together, even when the session
+     * is open. Disabled by default.
+     *
+     * @param batchQueuedSends whether to batch queued sends
+     */
+    public void setBatchQueuedSends(boolean batchQueuedSends) {
+        this.batchQueuedSends = batchQueuedSends;
+    }
+
+    public boolean isConflateQueuedSends() {
+        return sendQueues[0].isConflating();
+    }
+
+    /**
+     * Sets whether a queued {@link ConflatableMessage} is replaced by a newer message of the same class and key, which takes its place in the send
+     * queue. Since messages sent with {@link SendType#QUEUE} are queued while the session is unwritable, a session falling behind only sends the
+     * latest values once it catches up. Disabled by default.
+     *
+     * @param conflateQueuedSends whether to conflate queued sends
+     */
+    public void setConflateQueuedSends(boolean conflateQueuedSends) {
+        for (ConflatingQueue queue : sendQueues) {
+            queue.setConflating(conflateQueuedSends);
+        }
+    }
+
+    /**
+     * Gets the number of queued messages which have been replaced by newer ones.
+     *
+     * @return the number of conflated messages
+     */
+    public long getConflatedMessageCount() {
+        long conflated = 0;
+        for (ConflatingQueue queue : sendQueues) {
+            conflated += queue.getConflatedCount();
+        }
+        return conflated;
+    }
+
+    public int getPriorityWeight(MessagePriority priority) {
+        return priorityWeights[priority.ordinal()];
+    }
+
+    /**
+     * Sets the number of queued messages of a priority written in turn with the other priorities, see {@link MessagePriority#getDefaultWeight()}.
+     *
+     * @param priority the priority, other than {@link MessagePriority#CONTROL}
+     * @param weight the weight
+     */
+    public void setPriorityWeight(MessagePriority priority, int weight) {
+        if (priority == MessagePriority.CONTROL) {
+            throw new IllegalArgumentException("Control messages are not weighted");
+        }
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight must be positive: " + weight);
+        }
+        synchronized (sendQueues) {
+            final int[] weights = priorityWeights.clone();
+            weights[priority.ordinal()] = weight;
+            priorityWeights = weights;
+        }
+    }
+
+    /**
+     * Gets the number of messages waiting in the send queues.
+     *
+     * @return the number of queued messages
+     */
+    public int getQueuedSendCount() {
+        return queuedSends.get();
+    }
+
+    private boolean hasQueuedSends() {
+        return queuedSends.get() > 0;
+    }
+
+    public int getMaxBytesPerPulse() {
+        return maxBytesPerPulse;
+    }
+
+    /**
+     * Sets the maximum number of bytes a pulse writes from the send queue. The limit is checked after each message, so it can be exceeded by
+     * the last message written. The messages left over are written by the next pulse. Bytes are counted as the encoder of the pipeline encodes
+     * the messages, so without an encoder, as with message passthrough, only writability limits a pulse. Unlimited by default.
+     *
+     * @param maxBytesPerPulse the maximum number of bytes, or 0 for unlimited
+     */
+    public void setMaxBytesPerPulse(int maxBytesPerPulse) {
+        if (maxBytesPerPulse < 0) {
+            throw new IllegalArgumentException("Max bytes per pulse cannot be negative: " + maxBytesPerPulse);
+        }
+        this.maxBytesPerPulse = maxBytesPerPulse;
+    }
+
     public void pulse() {
         Message message;
 
-        if (state == State.OPEN) {
-            while ((message = sendQueue.poll()) != null) {
-                super.send(message);
-            }
+        if (state == State.OPEN && hasQueuedSends() && flushScheduled.compareAndSet(false, true)) {
+            getChannel().eventLoop().execute(flushTask);
         }
 
-        while ((message = messageQueue.poll()) != null) {
+        final int maxMessages = maxMessagesPerPulse;
+        final long budget = maxPulseNanos;
+        final long deadline = budget > 0 ? System.nanoTime() + budget : 0;
+        int handled = 0;
+        while (handled < maxMessages && (message = messageQueue.poll()) != null) {
+            queuedMessages.decrementAndGet();
             super.messageReceived(message);
+            handled++;
+            if (budget > 0 && System.nanoTime() - deadline >= 0) {
+                break;
+            }
+        }
+
+        // A suspension which happens after this check is undone by the next pulse
+        if (readSuspended) {
+            resumeReadIfDrained();
+        }
+    }
+
+    /**
+     * Suspends reading from the channel if the queue is full. The queue size is checked and reading suspended while holding the same lock as
+     * {@link #resumeReadIfDrained()}, so that a pulse draining the queue can't resume reading before it is suspended, leaving it off for good.
+     */
+    private void suspendReadIfFull() {
+        synchronized (readLock) {
+            if (!readSuspended && queuedMessages.get() >= inboundCapacity) {
+                readSuspended = true;
+                getChannel().config().setAutoRead(false);
+            }
+        }
+    }
+
+    private void resumeReadIfDrained() {
+        synchronized (readLock) {
+            if (readSuspended && queuedMessages.get() < inboundCapacity) {
+                readSuspended = false;
+                getChannel().config().setAutoRead(true);
+            }
+        }
+    }
+
+    /**
+     * Writes the queued messages and flushes them at once. Runs on the event loop.
+     * <br/>
+     * Control messages are written first. The other queues then take turns, each writing up to its weight in messages, carrying on from the
+     * queue and turn where the last flush stopped.
+     */
+    private void flushSendQueue() {
+        if (!isActive()) {
+            clearSendQueues();
+            return;
+        }
+        final int maxBytes = maxBytesPerPulse;
+        // Messages are encoded as they are written, since this runs on the event loop. Without an encoder, only writability limits the pulse.
+        final MessageHandler handler = getChannel().pipeline().get(MessageHandler.class);
+        final long start = handler != null ? handler.getEncodedBytes() : 0;
+        final int[] weights = priorityWeights;
+        final ConflatingQueue control = sendQueues[MessagePriority.CONTROL.ordinal()];
+        boolean written = false;
+        // The number of weighted queues in a row found empty
+        int empty = 0;
+        // Whatever the channel can't take stays queued until it becomes writable again
+        while (empty < sendQueues.length - 1) {
+            if (!isActive()) {
+                // Closed by a handler during the pulse, nothing queued can be sent anymore
+                clearSendQueues();
+                break;
+            }
+            if (!getChannel().isWritable()) {
+                break;
+            }
+            Message message = control.poll();
+            if (message == null) {
+                if (drainCredit <= 0) {
+                    drainIndex = drainIndex + 1 < sendQueues.length ? drainIndex + 1 : 1;
+                    drainCredit = weights[drainIndex];
+                }
+                message = sendQueues[drainIndex].poll();
+                if (message == null) {
+                    empty++;
+                    drainCredit = 0;
+                    continue;
+                }
+                empty = 0;
+                drainCredit--;
+            }
+            write(message);
+            written = true;
+            if (maxBytes > 0 && handler != null && handler.getEncodedBytes() - start >= maxBytes) {
+                break;
+            }
+        }
+        if (written) {
+            flush();
+        }
+    }
+
+    private void clearSendQueues() {
+        for (ConflatingQueue queue : sendQueues) {
+            queue.clear();
+        }
+    }
+
+    @Override
+    public void onWritabilityChanged(boolean writable) {
+        super.onWritabilityChanged(writable);
+        if (writable && state == State.OPEN && !batchQueuedSends && hasQueuedSends() && flushScheduled.compareAndSet(false, true)) {
+            getChannel().eventLoop().execute(flushTask);
         }
     }
 
@@ -98,13 +446,29 @@ public class PulsingSession extends BasicSession {
     }
 
     public void send(SendType type, Message message) throws ChannelClosedException {
-        if (message == null) {
+        send(type, message instanceof PrioritizedMessage ? ((PrioritizedMessage) message).getPriority() : MessagePriority.NORMAL, message);
+    }
+
+    /**
+     * Sends a message with a priority, which overrides the priority of a {@link PrioritizedMessage}. The priority decides when a queued message
+     * is written. {@link MessagePriority#CONTROL} messages are written right away once the session is open, ahead of any queued messages.
+     *
+     * @param type the send type
+     * @param priority the priority
+     * @param message the message
+     * @throws ChannelClosedException if the session is inactive
+     */
+    public void send(SendType type, MessagePriority priority, Message message) throws ChannelClosedException {
+        if (message == null || dropIfUnwritable(message)) {
             return;
         }
-        if (type == SendType.FORCE || this.state == State.OPEN) {
+        if (type == SendType.FORCE || (priority == MessagePriority.CONTROL && this.state == State.OPEN)) {
+            super.send(message);
+        } else if (type == SendType.QUEUE && (this.state != State.OPEN || batchQueuedSends || !isWritable() || hasQueuedSends())) {
+            // Messages left over by the byte limit of the last pulse, or waiting on writability, still go first
+            sendQueues[priority.ordinal()].add(message);
+        } else if (this.state == State.OPEN) {
             super.send(message);
-        } else if (type == SendType.QUEUE) {
-            sendQueue.add(message);
         }
     }
 
@@ -132,7 +496,90 @@ public class PulsingSession extends BasicSession {
                 return;
             }
         }
+        final int capacity = inboundCapacity;
+        final OverflowPolicy policy = overflowPolicy;
+        if (queuedMessages.incrementAndGet() > capacity) {
+            switch (policy) {
+                case DISCONNECT:
+                    queuedMessages.decrementAndGet();
+                    disconnect();
+                    return;
+                case DROP_OLDEST:
+                    if (messageQueue.poll() != null) {
+                        queuedMessages.decrementAndGet();
+                    }
+                    break;
+                case BACKPRESSURE:
+                    // Messages already read from the socket keep arriving for a while after reading is suspended
+                    break;
+            }
+        }
         messageQueue.add(message);
+        if (policy == OverflowPolicy.BACKPRESSURE) {
+            suspendReadIfFull();
+        }
+    }
+
+    /**
+     * Adds the messages of a read to the unprocessed queue at once, updating the queue size once. Falls back to adding them one by one if they
+     * would overflow the queue, so that the {@link OverflowPolicy} applies to each of them.
+     *
+     * @param messages the messages
+     */
+    @Override
+    public void messagesReceived(List<? extends Message> messages) {
+        final int size = messages.size();
+        // Only the network thread adds to the queue, so the size can only have gone down by the time the messages are added
+        if (queuedMessages.get() + size > inboundCapacity) {
+            super.messagesReceived(messages);
+            return;
+        }
+        boolean async = false;
+        for (int i = 0; i < size; i++) {
+            final Message message = messages.get(i);
+            if (message instanceof AsyncableMessage && ((AsyncableMessage) message).isAsync()) {
+                async = true;
+                break;
+            }
+        }
+        if (async) {
+            int queued = 0;
+            for (int i = 0; i < size; i++) {
+                final Message message = messages.get(i);
+                if (message instanceof AsyncableMessage && ((AsyncableMessage) message).isAsync()) {
+                    super.messageReceived(message);
+                } else {
+                    queuedMessages.incrementAndGet();
+                    messageQueue.add(message);
+                    queued++;
+                }
+            }
+            if (queued == 0) {
+                return;
+            }
+        } else {
+            queuedMessages.addAndGet(size);
+            messageQueue.addAll(messages);
+        }
+        if (overflowPolicy == OverflowPolicy.BACKPRESSURE) {
+            suspendReadIfFull();
+        }
+    }
+
+    /**
+     * Specifies what happens to a message received while the incoming message queue is full
+     */
+    public static enum OverflowPolicy {
+        /**
+         * The message is dropped and the session is disconnected.
+         */
+        DISCONNECT, /**
+         * The oldest queued message is dropped to make room for the new one.
+         */
+        DROP_OLDEST, /**
+         * The message is queued and reading from the channel is suspended until a pulse brings the queue back under capacity.
+         */
+        BACKPRESSURE
     }
 
     /**
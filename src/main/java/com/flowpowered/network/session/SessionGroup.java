@@ -0,0 +1,285 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.session;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.EventLoop;
+
+import com.flowpowered.network.Message;
+import com.flowpowered.network.protocol.Protocol;
+
+/**
+ * A thread-safe group of sessions which messages can be sent to together. Sessions leave the group when their channel closes.
+ * <br/>
+ * Members are kept partitioned by the {@link EventLoop} of their channel. Sending a message encodes it once per protocol, like the
+ * {@link Broadcaster}, then submits a single task per event loop which writes the frame to every member on that loop. Writing to N members on
+ * one loop costs one cross-thread task instead of N.
+ */
+public class SessionGroup implements Iterable<BasicSession> {
+    /**
+     * The members, by the event loop of their channel
+     */
+    private final ConcurrentMap<EventLoop, Set<BasicSession>> members = new ConcurrentHashMap<>();
+    /**
+     * The members, with the listeners removing them when their channel closes. Adding and removing members is synchronized to keep both maps in
+     * step, sending is not.
+     */
+    private final ConcurrentMap<BasicSession, ChannelFutureListener> removers = new ConcurrentHashMap<>();
+
+    /**
+     * Adds a session to the group.
+     *
+     * @param session the session
+     * @return true if the session was added, false if it was already a member
+     */
+    public synchronized boolean add(final BasicSession session) {
+        final ChannelFutureListener remover = new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                remove(session);
+            }
+        };
+        if (removers.putIfAbsent(session, remover) != null) {
+            return false;
+        }
+        final EventLoop loop = session.getChannel().eventLoop();
+        Set<BasicSession> partition = members.get(loop);
+        if (partition == null) {
+            final Set<BasicSession> created = Collections.newSetFromMap(new ConcurrentHashMap<BasicSession, Boolean>());
+            partition = members.putIfAbsent(loop, created);
+            if (partition == null) {
+                partition = created;
+            }
+        }
+        partition.add(session);
+        // Runs right away if the channel is already closed
+        session.getChannel().closeFuture().addListener(remover);
+        return true;
+    }
+
+    /**
+     * Removes a session from the group.
+     *
+     * @param session the session
+     * @return true if the session was removed, false if it wasn't a member
+     */
+    public synchronized boolean remove(BasicSession session) {
+        final ChannelFutureListener remover = removers.remove(session);
+        if (remover == null) {
+            return false;
+        }
+        final Set<BasicSession> partition = members.get(session.getChannel().eventLoop());
+        if (partition != null) {
+            partition.remove(session);
+        }
+        session.getChannel().closeFuture().removeListener(remover);
+        return true;
+    }
+
+    public boolean contains(BasicSession session) {
+        return removers.containsKey(session);
+    }
+
+    public int size() {
+        return removers.size();
+    }
+
+    @Override
+    public Iterator<BasicSession> iterator() {
+        return removers.keySet().iterator();
+    }
+
+    /**
+     * Sends a message to every active member of the group.
+     *
+     * @param message the message
+     * @throws IOException if the message can't be encoded for the protocol of one of the members
+     */
+    public void send(Message message) throws IOException {
+        send(message, null);
+    }
+
+    /**
+     * Sends a message to every active member of the group accepted by the filter. The message is encoded before anything is written, so if it
+     * fails to encode for any member, it isn't sent to any.
+     *
+     * @param message the message
+     * @param filter the filter, or null to send to every member
+     * @throws IOException if the message can't be encoded for the protocol of one of the members
+     */
+    public void send(Message message, Filter filter) throws IOException {
+        final Map<Protocol, ByteBuf> frames = new IdentityHashMap<>();
+        final List<WriteTask> tasks = new ArrayList<>(members.size());
+        try {
+            for (Map.Entry<EventLoop, Set<BasicSession>> entry : members.entrySet()) {
+                WriteTask task = null;
+                for (BasicSession session : entry.getValue()) {
+                    if (!session.isActive() || (filter != null && !filter.accept(session))) {
+                        continue;
+                    }
+                    // Sessions with message passthrough are sent the message itself
+                    final ByteBuf frame = session.acceptsFrames() ? Broadcaster.getFrame(frames, session, message) : null;
+                    if (task == null) {
+                        task = new WriteTask(entry.getKey(), message);
+                        tasks.add(task);
+                    }
+                    task.sessions.add(session);
+                    task.frames.add(frame);
+                }
+            }
+            for (WriteTask task : tasks) {
+                task.submit();
+            }
+        } finally {
+            for (ByteBuf frame : frames.values()) {
+                frame.release();
+            }
+        }
+    }
+
+    /**
+     * Creates a filter accepting every session except the given one, typically the sender of the message.
+     *
+     * @param excluded the session to exclude
+     * @return the filter
+     */
+    public static Filter exclude(final BasicSession excluded) {
+        return new Filter() {
+            @Override
+            public boolean accept(BasicSession session) {
+                return session != excluded;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " [size=" + size() + "]";
+    }
+
+    /**
+     * Selects the members of a group a message is sent to.
+     */
+    public static interface Filter {
+        /**
+         * Checks whether the message should be sent to a session.
+         *
+         * @param session the session
+         * @return true to send the message to the session
+         */
+        boolean accept(BasicSession session);
+    }
+
+    /**
+     * Writes frames to the members of a group on the same event loop.
+     */
+    private static class WriteTask implements Runnable {
+        private final EventLoop loop;
+        private final Message message;
+        private final List<BasicSession> sessions = new ArrayList<>();
+        /**
+         * The frame of each session, or null to send it the message
+         */
+        private final List<ByteBuf> frames = new ArrayList<>();
+
+        private WriteTask(EventLoop loop, Message message) {
+            this.loop = loop;
+            this.message = message;
+        }
+
+        private void submit() {
+            // Each write gets its own duplicate, retained until it's written
+            for (int i = 0; i < frames.size(); i++) {
+                final ByteBuf frame = frames.get(i);
+                if (frame != null) {
+                    frames.set(i, frame.duplicate().retain());
+                }
+            }
+            if (loop.inEventLoop()) {
+                run();
+                return;
+            }
+            try {
+                loop.execute(this);
+            } catch (RejectedExecutionException ex) {
+                for (ByteBuf frame : frames) {
+                    if (frame != null) {
+                        frame.release();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int i = 0;
+            try {
+                for (; i < sessions.size(); i++) {
+                    send(sessions.get(i), frames.get(i));
+                }
+            } finally {
+                // Something other than a failed send stopped the loop, the frames of the remaining sessions are still retained
+                for (i++; i < frames.size(); i++) {
+                    final ByteBuf frame = frames.get(i);
+                    if (frame != null) {
+                        frame.release();
+                    }
+                }
+            }
+        }
+
+        private void send(BasicSession session, ByteBuf frame) {
+            if (!session.isActive()) {
+                if (frame != null) {
+                    frame.release();
+                }
+                return;
+            }
+            // The session may close concurrently, which mustn't keep the message from the others
+            try {
+                if (frame == null) {
+                    session.send(message);
+                } else {
+                    session.sendFrame(frame);
+                }
+            } catch (RuntimeException ex) {
+                session.onOutboundThrowable(ex);
+            }
+        }
+    }
+}
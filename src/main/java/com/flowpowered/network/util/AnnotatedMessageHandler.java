@@ -27,10 +27,11 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.lang.reflect.Modifier;
 
 import com.flowpowered.network.Message;
 
@@ -40,9 +41,14 @@ import com.flowpowered.network.Message;
  * handler, an instance of the class containing the method is passed to the constructor. Handle methods will be called from this instance when handling messages. To handle a message, simply call
  * {@link #handle(com.flowpowered.network.Message)} with the said message as a parameter. The thread calling {@link #handle(com.flowpowered.network.Message)} is the same that calls the handle
  * method.
+ * <br/>
+ * A handle also receives messages that are subclasses of its parameter type, or that implement it if it is an interface. When several handles match,
+ * the one for the closest superclass wins, then the closest interface. Handles are bound to the handler instance as {@link MethodHandle}s and cached
+ * per message class, so handling a message takes no locks and does no reflection.
  */
 public class AnnotatedMessageHandler {
-    private final Map<Class<?>, Method> handles = Collections.synchronizedMap(new HashMap<Class<?>, Method>());
+    private static final MethodType HANDLE_TYPE = MethodType.methodType(void.class, Message.class);
+    private final ClassHierarchyCache<MethodHandle> handles = new ClassHierarchyCache<>();
     private final Object handler;
 
     /**
@@ -61,13 +67,15 @@ public class AnnotatedMessageHandler {
      * @param message The message to handle
      */
     public void handle(Message message) {
-        final Method handle = handles.get(message.getClass());
+        final MethodHandle handle = handles.find(message.getClass());
         if (handle == null) {
             throw new IllegalArgumentException("No handle for message type [" + message.getClass().getName() + "]");
         }
         try {
-            handle.invoke(handler, message);
-        } catch (Exception ex) {
+            handle.invokeExact(message);
+        } catch (Error error) {
+            throw error;
+        } catch (Throwable ex) {
             throw new RuntimeException("Failed to handle message [" + message + "]", ex);
         }
     }
@@ -84,9 +92,19 @@ public class AnnotatedMessageHandler {
                     throw new IllegalStateException("Expected parameter to be a subclass of Message for handler method [" + method.getName() + "]");
                 }
                 method.setAccessible(true);
-                handles.put(messageType, method);
+                MethodHandle handle;
+                try {
+                    handle = MethodHandles.lookup().unreflect(method);
+                } catch (IllegalAccessException ex) {
+                    throw new IllegalStateException("Cannot access handler method [" + method.getName() + "]", ex);
+                }
+                if (!Modifier.isStatic(method.getModifiers())) {
+                    handle = handle.bindTo(handler);
+                }
+                handles.put(messageType, handle.asType(HANDLE_TYPE));
             }
         }
+        handles.freeze();
     }
 
     /**
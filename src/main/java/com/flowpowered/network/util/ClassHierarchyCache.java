@@ -0,0 +1,207 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.util;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Maps classes to values, where a class without a value of its own resolves to the value of its closest registered superclass or interface.
+ * <br/>
+ * Resolved values are cached per class in a {@link ClassValue}, so that looking up a class takes no locks and doesn't hash the class. Registering
+ * a value invalidates the resolved values, which are then resolved again on their next lookup. Once {@link #freeze() frozen}, no more values can
+ * be registered and lookups of already resolved classes skip the invalidation check.
+ *
+ * @param <V> the type of the values
+ */
+public class ClassHierarchyCache<V> {
+    private final ConcurrentMap<Class<?>, V> registered = new ConcurrentHashMap<>();
+    /**
+     * Incremented after every registration. Resolved values from an older version are stale.
+     */
+    private final AtomicInteger version = new AtomicInteger();
+    private volatile boolean frozen = false;
+    /**
+     * Set once frozen, holding the final version. It is read without synchronization by lookups; seeing it late only costs a version check.
+     */
+    private Frozen frozenVersion;
+    private final ClassValue<Slot<V>> resolved = new ClassValue<Slot<V>>() {
+        @Override
+        protected Slot<V> computeValue(Class<?> type) {
+            return new Slot<>();
+        }
+    };
+
+    /**
+     * Registers a value for a class, replacing the previous one if present.
+     *
+     * @param type the class
+     * @param value the value
+     * @return the previous value, or null if none
+     */
+    public V put(Class<?> type, V value) {
+        checkNotFrozen();
+        final V previous = registered.put(type, value);
+        version.incrementAndGet();
+        return previous;
+    }
+
+    /**
+     * Registers a value for a class, unless the class already has one.
+     *
+     * @param type the class
+     * @param value the value
+     * @return the current value, or null if the value was registered
+     */
+    public V putIfAbsent(Class<?> type, V value) {
+        checkNotFrozen();
+        final V previous = registered.putIfAbsent(type, value);
+        if (previous == null) {
+            version.incrementAndGet();
+        }
+        return previous;
+    }
+
+    /**
+     * Gets the value registered for exactly this class, ignoring its superclasses and interfaces.
+     *
+     * @param type the class
+     * @return the value, or null if none is registered
+     */
+    public V getExact(Class<?> type) {
+        return registered.get(type);
+    }
+
+    /**
+     * Finds the value for a class. If none is registered for the class itself, its superclasses are searched from the closest, then its interfaces
+     * and those of its superclasses, breadth first.
+     *
+     * @param type the class
+     * @return the value, or null if none is registered for the class or any of its supertypes
+     */
+    public V find(Class<?> type) {
+        final Slot<V> slot = resolved.get(type);
+        final Frozen frozenVersion = this.frozenVersion;
+        Resolution<V> resolution = slot.resolution;
+        if (frozenVersion != null && resolution != null && resolution.version == frozenVersion.version) {
+            return resolution.value;
+        }
+        // Read the version before resolving, so that a registration made during the resolution invalidates the result
+        final int current = version.get();
+        if (resolution == null || resolution.version != current) {
+            resolution = new Resolution<>(current, resolve(type));
+            slot.resolution = resolution;
+        }
+        return resolution.value;
+    }
+
+    /**
+     * Prevents any more values from being registered. The registered classes are resolved ahead of their first lookup.
+     */
+    public synchronized void freeze() {
+        if (frozen) {
+            return;
+        }
+        frozen = true;
+        for (Class<?> type : registered.keySet()) {
+            find(type);
+        }
+        frozenVersion = new Frozen(version.get());
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("Cannot register a class once frozen!");
+        }
+    }
+
+    private V resolve(Class<?> type) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            final V value = registered.get(c);
+            if (value != null) {
+                return value;
+            }
+        }
+        final Set<Class<?>> visited = new HashSet<>();
+        final Queue<Class<?>> queue = new ArrayDeque<>();
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            for (Class<?> i : c.getInterfaces()) {
+                queue.add(i);
+            }
+        }
+        Class<?> i;
+        while ((i = queue.poll()) != null) {
+            if (!visited.add(i)) {
+                continue;
+            }
+            final V value = registered.get(i);
+            if (value != null) {
+                return value;
+            }
+            for (Class<?> parent : i.getInterfaces()) {
+                queue.add(parent);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return registered.toString();
+    }
+
+    private static class Slot<V> {
+        /**
+         * Not volatile: resolutions are immutable and carry their version, so reading a stale one only causes it to be resolved again.
+         */
+        private Resolution<V> resolution;
+    }
+
+    private static class Resolution<V> {
+        private final int version;
+        private final V value;
+
+        private Resolution(int version, V value) {
+            this.version = version;
+            this.value = value;
+        }
+    }
+
+    private static class Frozen {
+        private final int version;
+
+        private Frozen(int version) {
+            this.version = version;
+        }
+    }
+}
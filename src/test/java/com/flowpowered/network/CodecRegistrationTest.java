@@ -0,0 +1,54 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.flowpowered.network.Codec.CodecRegistration;
+import com.flowpowered.network.fake.FakeMessageCodec;
+
+public class CodecRegistrationTest {
+    @Test
+    public void testSizeHint() {
+        final CodecRegistration reg = new CodecRegistration(0, new FakeMessageCodec());
+        assertEquals(0, reg.getSizeHint());
+        reg.recordEncodedSize(100);
+        assertEquals(100, reg.getSizeHint());
+        reg.recordEncodedSize(20);
+        assertEquals(90, reg.getSizeHint());
+    }
+
+    @Test
+    public void testSizeHintIsClamped() {
+        final CodecRegistration reg = new CodecRegistration(0, new FakeMessageCodec());
+        reg.recordEncodedSize(16 * 1024 * 1024);
+        assertEquals(CodecRegistration.MAX_SIZE_HINT, reg.getSizeHint());
+        for (int i = 0; i < 16; i++) {
+            reg.recordEncodedSize(100);
+        }
+        assertTrue(reg.getSizeHint() < CodecRegistration.MAX_SIZE_HINT / 4);
+    }
+}
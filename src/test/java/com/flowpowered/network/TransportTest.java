@@ -0,0 +1,166 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network;
+
+import java.io.File;
+import java.net.SocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.Channel;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalEventLoopGroup;
+import io.netty.channel.unix.DomainSocketAddress;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.flowpowered.network.fake.FakeMessage;
+import com.flowpowered.network.fake.FakeProtocol;
+import com.flowpowered.network.session.BasicSession;
+import com.flowpowered.network.session.Session;
+
+public class TransportTest {
+    @Test
+    public void testLocal() throws Exception {
+        roundTrip(Transport.LOCAL, new LocalAddress("encoded"), false);
+    }
+
+    @Test
+    public void testLocalPassthrough() throws Exception {
+        roundTrip(Transport.LOCAL, new LocalAddress("passthrough"), true);
+    }
+
+    @Test
+    public void testDomainSocket() throws Exception {
+        assumeTrue(Transport.EPOLL.isAvailable());
+        final File file = File.createTempFile("flow-network", ".sock");
+        file.delete();
+        try {
+            roundTrip(Transport.EPOLL, new DomainSocketAddress(file), false);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testShutdownWithSharedGroup() throws Exception {
+        final LocalEventLoopGroup group = new LocalEventLoopGroup(1);
+        final BlockingQueue<BasicSession> clientSessions = new LinkedBlockingQueue<>();
+        final NetworkServer server = new NetworkServer(Transport.LOCAL, group, group) {
+            @Override
+            public Session newSession(Channel c) {
+                return new BasicSession(c, new FakeProtocol());
+            }
+
+            @Override
+            public void sessionInactivated(Session session) {
+            }
+        };
+        final NetworkClient client = new NetworkClient(Transport.LOCAL, group) {
+            @Override
+            public Session newSession(Channel c) {
+                final BasicSession session = new BasicSession(c, new FakeProtocol());
+                clientSessions.add(session);
+                return session;
+            }
+
+            @Override
+            public void sessionInactivated(Session session) {
+            }
+        };
+        try {
+            final LocalAddress address = new LocalAddress("shared");
+            server.bind(address).sync();
+            client.connect(address).sync();
+            final BasicSession session = clientSessions.poll(5, TimeUnit.SECONDS);
+
+            // The group keeps running, but the accepted connections are closed with the server
+            server.shutdown();
+            assertTrue(session.getChannel().closeFuture().await(5, TimeUnit.SECONDS));
+            assertFalse(group.isShuttingDown());
+        } finally {
+            client.shutdown();
+            server.shutdown();
+            group.shutdownGracefully();
+        }
+    }
+
+    private void roundTrip(Transport transport, SocketAddress address, boolean passthrough) throws Exception {
+        final BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+        final BlockingQueue<BasicSession> clientSessions = new LinkedBlockingQueue<>();
+        final NetworkServer server = new NetworkServer(transport) {
+            @Override
+            public Session newSession(Channel c) {
+                return new BasicSession(c, new FakeProtocol()) {
+                    @Override
+                    public void messageReceived(Message message) {
+                        received.add(message);
+                    }
+                };
+            }
+
+            @Override
+            public void sessionInactivated(Session session) {
+            }
+        };
+        final NetworkClient client = new NetworkClient(transport) {
+            @Override
+            public Session newSession(Channel c) {
+                final BasicSession session = new BasicSession(c, new FakeProtocol());
+                clientSessions.add(session);
+                return session;
+            }
+
+            @Override
+            public void sessionInactivated(Session session) {
+            }
+        };
+        try {
+            server.setMessagePassthrough(passthrough);
+            client.setMessagePassthrough(passthrough);
+            server.bind(address).sync();
+            client.connect(address).sync();
+
+            final FakeMessage message = new FakeMessage("Hello");
+            clientSessions.poll(5, TimeUnit.SECONDS).send(message);
+            final Message result = received.poll(5, TimeUnit.SECONDS);
+            assertEquals(message, result);
+            if (passthrough) {
+                assertSame(message, result);
+            } else {
+                assertNotSame(message, result);
+            }
+        } finally {
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+}
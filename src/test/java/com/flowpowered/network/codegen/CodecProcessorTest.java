@@ -0,0 +1,63 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.codegen;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import com.flowpowered.network.Codec.CodecRegistration;
+import com.flowpowered.network.fake.FakeProtocol;
+
+public class CodecProcessorTest {
+    @Test
+    public void testRoundTrip() throws Exception {
+        @SuppressWarnings("unchecked")
+        List<List<Integer>> matrix = Arrays.asList(Arrays.asList(1, 300, -5), Collections.<Integer>emptyList());
+        GeneratedMessage message = new GeneratedMessage(42, 123456789L, true, 0.5, "Hello", new byte[] {1, 2, 3}, GeneratedMessage.Mode.RUN,
+                new GeneratedMessage.Position(1, 2), matrix, Arrays.asList(new GeneratedMessage.Position(3, 4)), "hidden");
+
+        GeneratedMessageCodec codec = new GeneratedMessageCodec();
+        ByteBuf buf = codec.encode(Unpooled.buffer(), message);
+        assertEquals(message, codec.decode(buf));
+        assertEquals(0, buf.readableBytes());
+    }
+
+    @Test
+    public void testRegistry() {
+        FakeProtocol protocol = new FakeProtocol();
+        GeneratedCodecRegistry.registerMessages(protocol);
+        CodecRegistration reg = protocol.getCodecRegistration(GeneratedMessage.class);
+        assertNotNull(reg);
+        assertEquals(7, reg.getOpcode());
+        assertNotNull(protocol.getCodecRegistration(GeneratedMessage.Position.class));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.codegen;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.flowpowered.network.Message;
+
+@GenerateCodec(opcode = 7)
+public class GeneratedMessage implements Message {
+    @VarInt
+    final int id;
+    final long time;
+    final boolean flag;
+    final double value;
+    final String name;
+    final byte[] data;
+    final Mode mode;
+    final Position position;
+    @VarInt
+    final List<List<Integer>> matrix;
+    final List<Position> path;
+    private final String hidden;
+
+    public GeneratedMessage(int id, long time, boolean flag, double value, String name, byte[] data, Mode mode, Position position, List<List<Integer>> matrix,
+            List<Position> path, String hidden) {
+        this.id = id;
+        this.time = time;
+        this.flag = flag;
+        this.value = value;
+        this.name = name;
+        this.data = data;
+        this.mode = mode;
+        this.position = position;
+        this.matrix = matrix;
+        this.path = path;
+        this.hidden = hidden;
+    }
+
+    public String getHidden() {
+        return hidden;
+    }
+
+    @Override
+    public String toString() {
+        return "GeneratedMessage{" + "id=" + id + ", time=" + time + ", flag=" + flag + ", value=" + value + ", name=" + name + ", data=" + Arrays.toString(data)
+                + ", mode=" + mode + ", position=" + position + ", matrix=" + matrix + ", path=" + path + ", hidden=" + hidden + '}';
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof GeneratedMessage)) {
+            return false;
+        }
+        final GeneratedMessage other = (GeneratedMessage) obj;
+        return id == other.id && time == other.time && flag == other.flag && value == other.value && name.equals(other.name) && Arrays.equals(data, other.data)
+                && mode == other.mode && position.equals(other.position) && matrix.equals(other.matrix) && path.equals(other.path) && hidden.equals(other.hidden);
+    }
+
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
+    public static enum Mode {
+        WALK, RUN
+    }
+
+    @GenerateCodec
+    public static class Position implements Message {
+        final float x;
+        final float y;
+
+        public Position(float x, float y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public String toString() {
+            return "Position{" + "x=" + x + ", y=" + y + '}';
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Position && x == ((Position) obj).x && y == ((Position) obj).y;
+        }
+
+        @Override
+        public int hashCode() {
+            return Float.floatToIntBits(x) * 31 + Float.floatToIntBits(y);
+        }
+    }
+}
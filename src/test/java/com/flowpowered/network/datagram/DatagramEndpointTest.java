@@ -0,0 +1,207 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.datagram;
+
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.flowpowered.network.Message;
+import com.flowpowered.network.Transport;
+import com.flowpowered.network.fake.FakeMessage;
+import com.flowpowered.network.fake.FakeProtocol;
+import com.flowpowered.network.pipeline.MessageEncoder;
+import com.flowpowered.network.util.ByteBufUtils;
+
+public class DatagramEndpointTest {
+    private final BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+    private TestEndpoint server;
+    private InetSocketAddress serverAddress;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TestEndpoint(received);
+        server.bind(new InetSocketAddress("127.0.0.1", 0)).sync();
+        serverAddress = (InetSocketAddress) server.getChannel().localAddress();
+    }
+
+    @After
+    public void tearDown() {
+        server.shutdown();
+    }
+
+    @Test
+    public void testDeliveries() throws Exception {
+        try (DatagramSocket socket = new DatagramSocket(new InetSocketAddress("127.0.0.1", 0))) {
+            socket.setSoTimeout(5000);
+            // The second reliable message arrives first
+            send(socket, entry(Delivery.RELIABLE_ORDERED, 1, "b"));
+            send(socket, entry(Delivery.RELIABLE_ORDERED, 0, "a"), entry(Delivery.UNRELIABLE_SEQUENCED, 5, "x"));
+            send(socket, entry(Delivery.UNRELIABLE_SEQUENCED, 3, "stale"), entry(Delivery.UNRELIABLE, 0, "u"));
+
+            for (String expected : new String[] {"a", "b", "x", "u"}) {
+                assertEquals(new FakeMessage(expected), received.poll(5, TimeUnit.SECONDS));
+            }
+            assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+
+            // Both reliable messages end up acknowledged
+            int acknowledged;
+            do {
+                final java.net.DatagramPacket packet = new java.net.DatagramPacket(new byte[1200], 1200);
+                socket.receive(packet);
+                acknowledged = ByteBufUtils.readVarInt(Unpooled.wrappedBuffer(packet.getData(), 0, packet.getLength()));
+            } while (acknowledged != 2);
+        }
+    }
+
+    @Test
+    public void testSessions() throws Exception {
+        final TestEndpoint client = new TestEndpoint(new LinkedBlockingQueue<Message>());
+        try {
+            client.setAcceptingSessions(false);
+            client.bind(new InetSocketAddress("127.0.0.1", 0)).sync();
+            final DatagramSession session = client.connect(serverAddress);
+            for (int i = 0; i < 500; i++) {
+                session.send(new FakeMessage(Integer.toString(i)));
+            }
+            for (int i = 0; i < 500; i++) {
+                assertEquals(new FakeMessage(Integer.toString(i)), received.poll(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void testMaxAcceptedSessions() throws Exception {
+        server.setMaxAcceptedSessions(1);
+        try (DatagramSocket first = new DatagramSocket(new InetSocketAddress("127.0.0.1", 0));
+                DatagramSocket second = new DatagramSocket(new InetSocketAddress("127.0.0.1", 0))) {
+            send(first, entry(Delivery.UNRELIABLE, 0, "first"));
+            assertEquals(new FakeMessage("first"), received.poll(5, TimeUnit.SECONDS));
+
+            // The datagram of another address is dropped rather than opening a second session
+            send(second, entry(Delivery.UNRELIABLE, 0, "second"));
+            assertNull(received.poll(200, TimeUnit.MILLISECONDS));
+            assertNull(server.getSession((InetSocketAddress) second.getLocalSocketAddress()));
+        }
+    }
+
+    @Test
+    public void testSendWindow() throws Exception {
+        try (DatagramSocket socket = new DatagramSocket(new InetSocketAddress("127.0.0.1", 0))) {
+            socket.setSoTimeout(5000);
+            final DatagramSession session = server.connect((InetSocketAddress) socket.getLocalSocketAddress());
+            for (int i = 0; i < 1100; i++) {
+                session.send(new FakeMessage(Integer.toString(i)));
+            }
+
+            // Without acknowledgements, only the messages which fit in the receive window of this end are sent, over and over
+            final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+            while (System.nanoTime() - end < 0) {
+                assertTrue(maxSequence(socket) < 1024);
+            }
+
+            // Once they are acknowledged, the rest follow
+            send(socket, 1024);
+            while (maxSequence(socket) != 1099) {
+            }
+        }
+    }
+
+    private static int maxSequence(DatagramSocket socket) throws Exception {
+        final java.net.DatagramPacket packet = new java.net.DatagramPacket(new byte[1200], 1200);
+        socket.receive(packet);
+        final ByteBuf data = Unpooled.wrappedBuffer(packet.getData(), 0, packet.getLength());
+        ByteBufUtils.readVarInt(data);
+        int max = -1;
+        while (data.isReadable()) {
+            assertEquals(Delivery.RELIABLE_ORDERED.ordinal(), data.readUnsignedByte());
+            max = Math.max(max, ByteBufUtils.readVarInt(data));
+            data.skipBytes(ByteBufUtils.readVarInt(data));
+        }
+        return max;
+    }
+
+    private void send(DatagramSocket socket, ByteBuf... entries) throws Exception {
+        send(socket, 0, entries);
+    }
+
+    private void send(DatagramSocket socket, int acknowledged, ByteBuf... entries) throws Exception {
+        final ByteBuf packet = Unpooled.buffer();
+        ByteBufUtils.writeVarInt(packet, acknowledged);
+        for (ByteBuf entry : entries) {
+            packet.writeBytes(entry);
+        }
+        socket.send(new java.net.DatagramPacket(packet.array(), packet.arrayOffset(), packet.readableBytes(), serverAddress));
+    }
+
+    private static ByteBuf entry(Delivery delivery, int sequence, String text) throws Exception {
+        final ByteBuf frame = MessageEncoder.encodeFrame(UnpooledByteBufAllocator.DEFAULT, new FakeProtocol(), new FakeMessage(text));
+        final ByteBuf entry = Unpooled.buffer();
+        entry.writeByte(delivery.ordinal());
+        if (delivery != Delivery.UNRELIABLE) {
+            ByteBufUtils.writeVarInt(entry, sequence);
+        }
+        ByteBufUtils.writeVarInt(entry, frame.readableBytes());
+        entry.writeBytes(frame);
+        return entry;
+    }
+
+    private static class TestEndpoint extends DatagramEndpoint {
+        private final BlockingQueue<Message> received;
+
+        private TestEndpoint(BlockingQueue<Message> received) {
+            super(Transport.NIO);
+            this.received = received;
+        }
+
+        @Override
+        public DatagramSession newSession(InetSocketAddress address) {
+            return new DatagramSession(this, address, new FakeProtocol()) {
+                @Override
+                public <T extends Message> void messageReceived(T message) {
+                    received.add(message);
+                }
+            };
+        }
+
+        @Override
+        public void sessionInactivated(DatagramSession session) {
+        }
+    }
+}
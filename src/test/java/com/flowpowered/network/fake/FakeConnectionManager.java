@@ -0,0 +1,55 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.fake;
+
+import io.netty.channel.Channel;
+
+import com.flowpowered.network.ConnectionManager;
+import com.flowpowered.network.protocol.AbstractProtocol;
+import com.flowpowered.network.session.BasicSession;
+import com.flowpowered.network.session.Session;
+
+/**
+ * Creates a {@link BasicSession} with the given protocol for every channel.
+ */
+public class FakeConnectionManager implements ConnectionManager {
+    private final AbstractProtocol protocol;
+
+    public FakeConnectionManager(AbstractProtocol protocol) {
+        this.protocol = protocol;
+    }
+
+    @Override
+    public Session newSession(Channel c) {
+        return new BasicSession(c, protocol);
+    }
+
+    @Override
+    public void sessionInactivated(Session session) {
+    }
+
+    @Override
+    public void shutdown() {
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.fake;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+
+import com.flowpowered.network.protocol.FramedProtocol;
+
+/**
+ * A {@link FakeProtocol} which exposes the length of its frames.
+ */
+public class FakeFramedProtocol extends FakeProtocol implements FramedProtocol {
+    @Override
+    public int getFrameLength(ByteBuf buf) throws IOException {
+        int index = buf.readerIndex();
+        // Skip the opcode
+        while (true) {
+            if (index >= buf.writerIndex()) {
+                return -1;
+            }
+            if ((buf.getByte(index++) & 0x80) == 0) {
+                break;
+            }
+        }
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (index >= buf.writerIndex()) {
+                return -1;
+            }
+            if (shift > 28) {
+                throw new IOException("Length is too long for a varint");
+            }
+            byte in = buf.getByte(index++);
+            length |= (in & 0x7F) << shift;
+            if ((in & 0x80) == 0) {
+                break;
+            }
+        }
+        return index - buf.readerIndex() + length;
+    }
+}
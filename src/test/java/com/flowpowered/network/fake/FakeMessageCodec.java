@@ -0,0 +1,44 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.fake;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+
+import com.flowpowered.network.Codec;
+import com.flowpowered.network.util.ByteBufUtils;
+
+public class FakeMessageCodec implements Codec<FakeMessage> {
+    @Override
+    public FakeMessage decode(ByteBuf buffer) throws IOException {
+        return new FakeMessage(ByteBufUtils.readUTF8(buffer));
+    }
+
+    @Override
+    public ByteBuf encode(ByteBuf buf, FakeMessage message) throws IOException {
+        ByteBufUtils.writeUTF8(buf, message.getText());
+        return buf;
+    }
+}
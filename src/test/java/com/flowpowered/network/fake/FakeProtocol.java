@@ -0,0 +1,89 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.fake;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+
+import com.flowpowered.network.Codec;
+import com.flowpowered.network.Codec.CodecRegistration;
+import com.flowpowered.network.exception.IllegalOpcodeException;
+import com.flowpowered.network.exception.UnknownPacketException;
+import com.flowpowered.network.protocol.ReservedHeaderProtocol;
+import com.flowpowered.network.protocol.simple.SimpleProtocol;
+import com.flowpowered.network.util.ByteBufUtils;
+
+/**
+ * A protocol whose header is a varint opcode followed by a varint length.
+ */
+public class FakeProtocol extends SimpleProtocol implements ReservedHeaderProtocol {
+    public FakeProtocol() {
+        super("FakeProtocol", 0);
+        registerMessage(FakeMessage.class, FakeMessageCodec.class, null, 1);
+    }
+
+    @Override
+    public Codec<?> readHeader(ByteBuf buf) throws UnknownPacketException {
+        int opcode = -1;
+        int length = -1;
+        try {
+            opcode = ByteBufUtils.readVarInt(buf);
+            length = ByteBufUtils.readVarInt(buf);
+            return getCodecLookupService().find(opcode);
+        } catch (IOException | IllegalOpcodeException e) {
+            throw new UnknownPacketException("Unknown opcode " + opcode, opcode, length);
+        }
+    }
+
+    @Override
+    public ByteBuf writeHeader(ByteBuf header, CodecRegistration codec, ByteBuf data) {
+        writeHeader(header, codec, data.readableBytes());
+        return header;
+    }
+
+    @Override
+    public int getMaxHeaderSize() {
+        return 10;
+    }
+
+    @Override
+    public int getHeaderSize(CodecRegistration codec, int length) {
+        return varIntSize(codec.getOpcode()) + varIntSize(length);
+    }
+
+    @Override
+    public void writeHeader(ByteBuf buf, CodecRegistration codec, int length) {
+        ByteBufUtils.writeVarInt(buf, codec.getOpcode());
+        ByteBufUtils.writeVarInt(buf, length);
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.pipeline;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.TooLongFrameException;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.flowpowered.network.Codec;
+import com.flowpowered.network.Message;
+import com.flowpowered.network.fake.FakeConnectionManager;
+import com.flowpowered.network.fake.FakeFramedProtocol;
+import com.flowpowered.network.fake.FakeMessage;
+import com.flowpowered.network.fake.FakeProtocol;
+import com.flowpowered.network.protocol.AbstractProtocol;
+import com.flowpowered.network.util.ByteBufUtils;
+
+public class MessageDecoderTest {
+    private static final String[] TEXTS = {"Hello", "", "A somewhat longer message which needs a few more reads to arrive"};
+
+    @Test
+    public void testReplaying() throws Exception {
+        testSplitReads(new FakeProtocol());
+    }
+
+    @Test
+    public void testFramed() throws Exception {
+        testSplitReads(new FakeFramedProtocol());
+    }
+
+    @Test
+    public void testReplayingLimit() throws Exception {
+        MessageHandler handler = new MessageHandler(new FakeConnectionManager(new FakeProtocol())) {
+            @Override
+            public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+                ctx.fireExceptionCaught(cause);
+            }
+        };
+        MessageDecoder decoder = new MessageDecoder(handler);
+        decoder.setMaxReplayLength(16);
+        EmbeddedChannel channel = new EmbeddedChannel(decoder, handler);
+
+        // The string claims to be longer than anything that arrives, so the message never decodes
+        ByteBuf data = Unpooled.buffer();
+        ByteBufUtils.writeVarInt(data, 1);
+        ByteBufUtils.writeVarInt(data, 1000);
+        ByteBufUtils.writeVarInt(data, 1000);
+        channel.writeInbound(data.copy());
+        try {
+            channel.writeInbound(Unpooled.buffer().writeZero(32));
+            fail("The message should have been given up on");
+        } catch (TooLongFrameException e) {
+        }
+        assertNull(channel.readInbound());
+        channel.finish();
+    }
+
+    @Test
+    public void testReplayingCodecFailure() throws Exception {
+        MessageHandler handler = new MessageHandler(new FakeConnectionManager(new FailingProtocol())) {
+            @Override
+            public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+                ctx.fireExceptionCaught(cause);
+            }
+        };
+        EmbeddedChannel channel = new EmbeddedChannel(new MessageDecoder(handler), handler);
+
+        // A bug in the codec is reported rather than taken for a message which hasn't fully arrived yet
+        ByteBuf data = Unpooled.buffer();
+        ByteBufUtils.writeVarInt(data, 2);
+        ByteBufUtils.writeVarInt(data, 0);
+        try {
+            channel.writeInbound(data);
+            fail("The codec failure should have been reported");
+        } catch (DecoderException e) {
+            assertTrue(e.getCause() instanceof ArrayIndexOutOfBoundsException);
+        }
+        channel.finish();
+    }
+
+    private void testSplitReads(AbstractProtocol protocol) throws Exception {
+        MessageHandler handler = new MessageHandler(new FakeConnectionManager(protocol)) {
+            @Override
+            protected void channelRead0(ChannelHandlerContext ctx, Message message) {
+                // Pass the messages on so that they can be read from the channel
+                ctx.fireChannelRead(message);
+            }
+        };
+        EmbeddedChannel channel = new EmbeddedChannel(new MessageDecoder(handler), handler);
+
+        ByteBuf data = Unpooled.buffer();
+        for (String text : TEXTS) {
+            ByteBuf body = Unpooled.buffer();
+            ByteBufUtils.writeUTF8(body, text);
+            ByteBufUtils.writeVarInt(data, 1);
+            ByteBufUtils.writeVarInt(data, body.readableBytes());
+            data.writeBytes(body);
+        }
+
+        // Deliver the data three bytes at a time
+        while (data.isReadable()) {
+            channel.writeInbound(data.readBytes(Math.min(3, data.readableBytes())));
+        }
+        for (String text : TEXTS) {
+            assertEquals(new FakeMessage(text), channel.readInbound());
+        }
+        assertNull(channel.readInbound());
+        channel.finish();
+    }
+
+    private static class FailingMessage extends FakeMessage {
+        private FailingMessage() {
+            super("");
+        }
+    }
+
+    public static class FailingCodec implements Codec<FailingMessage> {
+        @Override
+        public FailingMessage decode(ByteBuf buffer) throws IOException {
+            throw new ArrayIndexOutOfBoundsException(1);
+        }
+
+        @Override
+        public ByteBuf encode(ByteBuf buf, FailingMessage message) throws IOException {
+            return buf;
+        }
+    }
+
+    private static class FailingProtocol extends FakeProtocol {
+        private FailingProtocol() {
+            registerMessage(FailingMessage.class, FailingCodec.class, null, 2);
+        }
+    }
+}
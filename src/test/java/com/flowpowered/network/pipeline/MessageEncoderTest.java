@@ -0,0 +1,62 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.pipeline;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.flowpowered.network.fake.FakeConnectionManager;
+import com.flowpowered.network.fake.FakeMessage;
+import com.flowpowered.network.fake.FakeProtocol;
+import com.flowpowered.network.util.ByteBufUtils;
+
+public class MessageEncoderTest {
+    @Test
+    public void testReservedHeader() throws Exception {
+        MessageHandler handler = new MessageHandler(new FakeConnectionManager(new FakeProtocol()));
+        EmbeddedChannel channel = new EmbeddedChannel(new MessageEncoder(handler), handler);
+
+        StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            longText.append('a');
+        }
+        for (String text : new String[] {"Hello", longText.toString()}) {
+            channel.writeOutbound(new FakeMessage(text));
+            ByteBuf frame = (ByteBuf) channel.readOutbound();
+            assertFalse("The header and message should share a single buffer", frame instanceof CompositeByteBuf);
+            assertEquals(1, ByteBufUtils.readVarInt(frame));
+            int length = ByteBufUtils.readVarInt(frame);
+            assertEquals(length, frame.readableBytes());
+            assertEquals(text, ByteBufUtils.readUTF8(frame));
+            assertEquals(0, frame.readableBytes());
+            frame.release();
+        }
+        channel.finish();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+import com.flowpowered.network.Message;
+import com.flowpowered.network.fake.FakeConnectionManager;
+import com.flowpowered.network.fake.FakeMessage;
+import com.flowpowered.network.fake.FakeProtocol;
+import com.flowpowered.network.session.BasicSession;
+import com.flowpowered.network.session.Session;
+import com.flowpowered.network.util.ByteBufUtils;
+
+public class MessageHandlerTest {
+    @Test
+    public void testBatchInbound() throws Exception {
+        final List<List<Message>> batches = new ArrayList<>();
+        MessageHandler handler = new MessageHandler(new FakeConnectionManager(new FakeProtocol()) {
+            @Override
+            public Session newSession(Channel c) {
+                return new BasicSession(c, new FakeProtocol()) {
+                    @Override
+                    public void messagesReceived(List<? extends Message> messages) {
+                        // The list is reused by the handler
+                        batches.add(new ArrayList<>(messages));
+                    }
+                };
+            }
+        });
+        handler.setBatchInbound(true);
+        EmbeddedChannel channel = new EmbeddedChannel(new MessageDecoder(handler), handler);
+
+        // Each write is one read, which completes once all of its messages are decoded
+        channel.writeInbound(frames("a", "b", "c"));
+        channel.writeInbound(frames("d"));
+        assertEquals(2, batches.size());
+        assertEquals(3, batches.get(0).size());
+        assertEquals(new FakeMessage("c"), batches.get(0).get(2));
+        assertEquals(1, batches.get(1).size());
+        assertEquals(new FakeMessage("d"), batches.get(1).get(0));
+        channel.finish();
+    }
+
+    private static ByteBuf frames(String... texts) throws Exception {
+        ByteBuf data = Unpooled.buffer();
+        for (String text : texts) {
+            ByteBuf body = Unpooled.buffer();
+            ByteBufUtils.writeUTF8(body, text);
+            ByteBufUtils.writeVarInt(data, 1);
+            ByteBufUtils.writeVarInt(data, body.readableBytes());
+            data.writeBytes(body);
+        }
+        return data;
+    }
+}
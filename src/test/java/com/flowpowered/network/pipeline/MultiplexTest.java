@@ -0,0 +1,236 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.pipeline;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.flowpowered.network.Message;
+import com.flowpowered.network.StreamedMessage;
+import com.flowpowered.network.fake.FakeConnectionManager;
+import com.flowpowered.network.fake.FakeMessage;
+import com.flowpowered.network.fake.FakeProtocol;
+import com.flowpowered.network.session.BasicSession;
+import com.flowpowered.network.util.ByteBufUtils;
+
+public class MultiplexTest {
+    @Test
+    public void testInterleaving() throws Exception {
+        MessageHandler sender = new MessageHandler(new FakeConnectionManager(new FakeProtocol()));
+        EmbeddedChannel out = new EmbeddedChannel(new MultiplexEncoder(sender, 16, 1, 1), sender);
+        MessageHandler receiver = new MessageHandler(new FakeConnectionManager(new FakeProtocol())) {
+            @Override
+            protected void channelRead0(ChannelHandlerContext ctx, Message message) {
+                ctx.fireChannelRead(message);
+            }
+        };
+        EmbeddedChannel in = new EmbeddedChannel(new MultiplexDecoder(), new MessageDecoder(receiver), receiver);
+
+        StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            longText.append('a');
+        }
+        FakeMessage large = new FakeMessage(longText.toString());
+        FakeMessage urgent = new UrgentMessage("urgent");
+        out.write(large);
+        out.write(urgent);
+        out.flush();
+
+        // The urgent message is complete after the second fragment, long before the large one
+        ByteBuf fragment;
+        while ((fragment = (ByteBuf) out.readOutbound()) != null) {
+            in.writeInbound(fragment);
+        }
+        assertEquals(new FakeMessage("urgent"), in.readInbound());
+        assertEquals(large, in.readInbound());
+        assertNull(in.readInbound());
+        out.finish();
+        in.finish();
+    }
+
+    @Test
+    public void testQueuedBytesMakeUnwritable() throws Exception {
+        MessageHandler sender = new MessageHandler(new FakeConnectionManager(new FakeProtocol()));
+        EmbeddedChannel out = new EmbeddedChannel(new MultiplexEncoder(sender, 16, 1), sender);
+        BasicSession.setWriteBufferWatermarks(out.config(), 32, 64);
+        MessageHandler receiver = new MessageHandler(new FakeConnectionManager(new FakeProtocol())) {
+            @Override
+            protected void channelRead0(ChannelHandlerContext ctx, Message message) {
+                ctx.fireChannelRead(message);
+            }
+        };
+        EmbeddedChannel in = new EmbeddedChannel(new MultiplexDecoder(), new MessageDecoder(receiver), receiver);
+
+        StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            longText.append('a');
+        }
+        FakeMessage large = new FakeMessage(longText.toString());
+        out.write(large);
+        // The message waits on its stream, yet the session sees the bytes waiting to be written
+        assertFalse(out.isWritable());
+        assertFalse(((BasicSession) sender.getSession()).isWritable());
+
+        // Only part of the message is written while the outbound buffer is full, the rest once it has drained
+        out.flush();
+        assertFalse(out.isWritable());
+        out.runPendingTasks();
+        assertTrue(out.isWritable());
+        ByteBuf fragment;
+        while ((fragment = (ByteBuf) out.readOutbound()) != null) {
+            in.writeInbound(fragment);
+        }
+        assertEquals(large, in.readInbound());
+        out.finish();
+        in.finish();
+    }
+
+    @Test
+    public void testOversizedFragmentHeader() throws Exception {
+        EmbeddedChannel in = new EmbeddedChannel(new MultiplexDecoder(1024, 16));
+
+        // Only the header arrives, the fragment is rejected without waiting for its payload
+        ByteBuf header = Unpooled.buffer();
+        header.writeByte(0);
+        header.writeByte(MultiplexEncoder.LAST_FRAGMENT);
+        ByteBufUtils.writeVarInt(header, 1 << 30);
+        try {
+            in.writeInbound(header);
+            fail("The fragment should be too long");
+        } catch (TooLongFrameException e) {
+        }
+        assertNull(in.readInbound());
+        in.finish();
+    }
+
+    @Test
+    public void testOversizedFragmentIsSkipped() throws Exception {
+        EmbeddedChannel in = new EmbeddedChannel(new MultiplexDecoder(1024, 16));
+        ByteBuf data = Unpooled.buffer();
+        data.writeByte(0);
+        data.writeByte(MultiplexEncoder.LAST_FRAGMENT);
+        ByteBufUtils.writeVarInt(data, 100);
+        try {
+            in.writeInbound(data);
+            fail("The fragment should be too long");
+        } catch (TooLongFrameException e) {
+        }
+
+        // The payload of the rejected fragment is skipped, and the next fragment is decoded
+        data = Unpooled.buffer();
+        data.writeZero(100);
+        data.writeByte(0);
+        data.writeByte(MultiplexEncoder.LAST_FRAGMENT);
+        ByteBufUtils.writeVarInt(data, 3);
+        data.writeBytes(new byte[] {1, 2, 3});
+        in.writeInbound(data);
+        ByteBuf message = (ByteBuf) in.readInbound();
+        assertEquals(Unpooled.wrappedBuffer(new byte[] {1, 2, 3}), message);
+        message.release();
+        in.finish();
+    }
+
+    @Test
+    public void testNegativeFragmentLength() throws Exception {
+        EmbeddedChannel in = new EmbeddedChannel(new MultiplexDecoder());
+        ByteBuf header = Unpooled.buffer();
+        header.writeByte(0);
+        header.writeByte(MultiplexEncoder.LAST_FRAGMENT);
+        ByteBufUtils.writeVarInt(header, -1);
+        try {
+            in.writeInbound(header);
+            fail("The length should be rejected");
+        } catch (CorruptedFrameException e) {
+        }
+        assertFalse(in.isOpen());
+    }
+
+    @Test
+    public void testStreamOutOfRange() throws Exception {
+        EmbeddedChannel in = new EmbeddedChannel(new MultiplexDecoder(1024, 16, 2));
+        try {
+            in.writeInbound(fragment(2, true, 3));
+            fail("The stream should be rejected");
+        } catch (CorruptedFrameException e) {
+        }
+        assertFalse(in.isOpen());
+    }
+
+    @Test
+    public void testMaxBufferedSize() throws Exception {
+        MultiplexDecoder decoder = new MultiplexDecoder(1024, 16, 4);
+        decoder.setMaxBufferedSize(40);
+        EmbeddedChannel in = new EmbeddedChannel(decoder);
+        in.writeInbound(fragment(0, false, 16));
+        in.writeInbound(fragment(1, false, 16));
+        // The third message being reassembled would take more than the limit, so it is dropped
+        try {
+            in.writeInbound(fragment(2, false, 16));
+            fail("The fragment should exceed the buffered size");
+        } catch (TooLongFrameException e) {
+        }
+
+        // A fragment which completes a message on its own isn't buffered, and a completed message makes room for another
+        in.writeInbound(fragment(3, true, 16));
+        ((ByteBuf) in.readInbound()).release();
+        in.writeInbound(fragment(0, true, 4));
+        ByteBuf message = (ByteBuf) in.readInbound();
+        assertEquals(20, message.readableBytes());
+        message.release();
+        in.writeInbound(fragment(2, false, 16));
+        assertNull(in.readInbound());
+        in.finish();
+    }
+
+    private static ByteBuf fragment(int stream, boolean last, int length) {
+        ByteBuf data = Unpooled.buffer();
+        data.writeByte(stream);
+        data.writeByte(last ? MultiplexEncoder.LAST_FRAGMENT : 0);
+        ByteBufUtils.writeVarInt(data, length);
+        data.writeZero(length);
+        return data;
+    }
+
+    private static class UrgentMessage extends FakeMessage implements StreamedMessage {
+        private UrgentMessage(String text) {
+            super(text);
+        }
+
+        @Override
+        public int getStream() {
+            return 1;
+        }
+    }
+}
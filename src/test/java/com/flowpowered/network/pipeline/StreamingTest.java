@@ -0,0 +1,229 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.pipeline;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.handler.stream.ChunkedStream;
+import io.netty.handler.stream.ChunkedWriteHandler;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.flowpowered.network.Message;
+import com.flowpowered.network.StreamingCodec;
+import com.flowpowered.network.fake.FakeConnectionManager;
+import com.flowpowered.network.fake.FakeFramedProtocol;
+import com.flowpowered.network.fake.FakeMessage;
+import com.flowpowered.network.util.ByteBufUtils;
+
+public class StreamingTest {
+    @Test
+    public void testStreamedRoundTrip() throws Exception {
+        byte[] data = new byte[100 * 1024];
+        new Random(42).nextBytes(data);
+
+        MessageHandler sender = new MessageHandler(new FakeConnectionManager(new BlobProtocol()));
+        EmbeddedChannel out = new EmbeddedChannel(new ChunkedWriteHandler(), new MessageEncoder(sender), sender);
+        EmbeddedChannel in = newReceiver(16 * 1024);
+
+        out.writeAndFlush(new BlobMessage(data));
+        out.writeAndFlush(new FakeMessage("after"));
+        int buffers = 0;
+        ByteBuf buf;
+        while ((buf = (ByteBuf) out.readOutbound()) != null) {
+            buffers++;
+            in.writeInbound(buf);
+        }
+        // The header and more than one chunk, none of them anywhere near the size of the message
+        assertTrue(buffers > 2);
+
+        Object received = in.readInbound();
+        assertTrue(received instanceof BlobMessage);
+        assertArrayEquals(data, ((BlobMessage) received).data);
+        assertEquals(new FakeMessage("after"), in.readInbound());
+        assertNull(in.readInbound());
+        out.finish();
+        in.finish();
+    }
+
+    @Test
+    public void testTooLongFrame() throws Exception {
+        EmbeddedChannel in = newReceiver(16);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            text.append('a');
+        }
+        ByteBuf data = Unpooled.buffer();
+        writeFrame(data, text.toString());
+        writeFrame(data, "short");
+
+        // The long frame is skipped as it arrives and decoding carries on after it
+        try {
+            in.writeInbound(data.readBytes(8));
+            fail("The frame should be too long");
+        } catch (TooLongFrameException e) {
+        }
+        in.writeInbound(data);
+        assertEquals(new FakeMessage("short"), in.readInbound());
+        assertNull(in.readInbound());
+        in.finish();
+    }
+
+    @Test
+    public void testTooLongFrameInOneRead() throws Exception {
+        EmbeddedChannel in = newReceiver(16);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            text.append('a');
+        }
+        ByteBuf data = Unpooled.buffer();
+        writeFrame(data, text.toString());
+        try {
+            in.writeInbound(data);
+            fail("The frame should be too long");
+        } catch (TooLongFrameException e) {
+        }
+        assertNull(in.readInbound());
+
+        data = Unpooled.buffer();
+        writeFrame(data, "short");
+        in.writeInbound(data);
+        assertEquals(new FakeMessage("short"), in.readInbound());
+        in.finish();
+    }
+
+    private static EmbeddedChannel newReceiver(int maxFrameLength) {
+        MessageHandler receiver = new MessageHandler(new FakeConnectionManager(new BlobProtocol())) {
+            @Override
+            protected void channelRead0(ChannelHandlerContext ctx, Message message) {
+                ctx.fireChannelRead(message);
+            }
+
+            @Override
+            public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+                ctx.fireExceptionCaught(cause);
+            }
+        };
+        MessageDecoder decoder = new MessageDecoder(receiver);
+        decoder.setMaxFrameLength(maxFrameLength);
+        return new EmbeddedChannel(decoder, receiver);
+    }
+
+    private static void writeFrame(ByteBuf buf, String text) throws IOException {
+        ByteBuf body = Unpooled.buffer();
+        ByteBufUtils.writeUTF8(body, text);
+        ByteBufUtils.writeVarInt(buf, 1);
+        ByteBufUtils.writeVarInt(buf, body.readableBytes());
+        buf.writeBytes(body);
+    }
+
+    private static class BlobProtocol extends FakeFramedProtocol {
+        private BlobProtocol() {
+            registerMessage(BlobMessage.class, BlobCodec.class, null, 2);
+        }
+    }
+
+    private static class BlobMessage implements Message {
+        private final byte[] data;
+
+        private BlobMessage(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public String toString() {
+            return "BlobMessage{" + "length=" + data.length + '}';
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof BlobMessage && Arrays.equals(data, ((BlobMessage) obj).data);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(data);
+        }
+    }
+
+    public static class BlobCodec implements StreamingCodec<BlobMessage> {
+        @Override
+        public BlobMessage decode(ByteBuf buf) throws IOException {
+            byte[] data = new byte[buf.readableBytes()];
+            buf.readBytes(data);
+            return new BlobMessage(data);
+        }
+
+        @Override
+        public ByteBuf encode(ByteBuf buf, BlobMessage message) throws IOException {
+            return buf.writeBytes(message.data);
+        }
+
+        @Override
+        public int getLength(BlobMessage message) {
+            return message.data.length;
+        }
+
+        @Override
+        public ChunkedInput<ByteBuf> newChunkedInput(BlobMessage message) {
+            return new ChunkedStream(new ByteArrayInputStream(message.data));
+        }
+
+        @Override
+        public ChunkDecoder<BlobMessage> newChunkDecoder(final int length) {
+            return new ChunkDecoder<BlobMessage>() {
+                private final ByteArrayOutputStream data = new ByteArrayOutputStream(length);
+
+                @Override
+                public void decodeChunk(ByteBuf chunk) throws IOException {
+                    chunk.readBytes(data, chunk.readableBytes());
+                }
+
+                @Override
+                public BlobMessage finish() {
+                    return new BlobMessage(data.toByteArray());
+                }
+
+                @Override
+                public void abort() {
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.service;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.flowpowered.network.Codec;
+import com.flowpowered.network.Codec.CodecRegistration;
+import com.flowpowered.network.exception.IllegalOpcodeException;
+import com.flowpowered.network.fake.FakeMessage;
+import com.flowpowered.network.fake.FakeMessageCodec;
+
+public class CodecLookupServiceTest {
+    @Test
+    public void testOpcodeTable() {
+        OpcodeTable table = new OpcodeTable();
+        Codec<?>[] codecs = new Codec<?>[200];
+        // Sparse opcodes, with some colliding in the low bits
+        for (int i = 0; i < codecs.length; i++) {
+            codecs[i] = new FakeMessageCodec();
+            table = table.with(i * 4096 + 7, codecs[i]);
+        }
+        assertEquals(codecs.length, table.size());
+        for (int i = 0; i < codecs.length; i++) {
+            assertSame(codecs[i], table.get(i * 4096 + 7));
+        }
+        assertEquals(null, table.get(8));
+        assertEquals(null, table.get(-1));
+        Codec<?> replacement = new FakeMessageCodec();
+        table = table.with(7, replacement);
+        assertEquals(codecs.length, table.size());
+        assertSame(replacement, table.get(7));
+    }
+
+    @Test
+    public void testDynamic() throws Exception {
+        CodecLookupService service = new CodecLookupService(0);
+        CodecRegistration reg = service.bind(FakeMessage.class, FakeMessageCodec.class, 40000);
+        assertNotNull(reg);
+        assertSame(reg.getCodec(), service.find(40000));
+        assertSame(reg, service.find(FakeMessage.class));
+    }
+
+    @Test(expected = IllegalOpcodeException.class)
+    public void testUnboundDynamic() throws Exception {
+        new CodecLookupService(0).find(3);
+    }
+
+    @Test(expected = IllegalOpcodeException.class)
+    public void testOutOfRange() throws Exception {
+        new CodecLookupService(16).find(16);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBindOutOfRange() throws Exception {
+        new CodecLookupService(16).bind(FakeMessage.class, FakeMessageCodec.class, 16);
+    }
+
+    @Test
+    public void testFreeze() throws Exception {
+        for (int opcode : new int[] {3, 100000}) {
+            CodecLookupService service = new CodecLookupService(0);
+            CodecRegistration reg = service.bind(FakeMessage.class, FakeMessageCodec.class, opcode);
+            service.freeze();
+            assertSame(reg.getCodec(), service.find(opcode));
+            assertSame(reg, service.find(FakeMessage.class));
+            // Binding an already bound message is still allowed, it returns the existing registration
+            assertSame(reg, service.bind(FakeMessage.class, FakeMessageCodec.class, opcode));
+            try {
+                service.find(opcode + 1);
+                fail("Unbound opcode was found after freezing");
+            } catch (IllegalOpcodeException expected) {
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBindFrozen() throws Exception {
+        CodecLookupService service = new CodecLookupService(16);
+        service.freeze();
+        service.bind(FakeMessage.class, FakeMessageCodec.class, null);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.session;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.EncoderException;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.flowpowered.network.DroppableMessage;
+import com.flowpowered.network.Message;
+import com.flowpowered.network.fake.FakeConnectionManager;
+import com.flowpowered.network.fake.FakeMessage;
+import com.flowpowered.network.fake.FakeProtocol;
+import com.flowpowered.network.pipeline.MessageEncoder;
+import com.flowpowered.network.pipeline.MessageHandler;
+
+public class BasicSessionTest {
+    @Test
+    public void testUnwritable() {
+        final EmbeddedChannel channel = new EmbeddedChannel();
+        final BasicSession session = newSession(channel);
+        session.setDropWhenUnwritable(true);
+        assertTrue(session.trySend(new FakeMessage("a")));
+
+        fillOutboundBuffer(channel);
+        assertFalse(session.isWritable());
+        assertFalse(session.trySend(new FakeMessage("b")));
+        session.send(new Position("c"));
+        session.send(new FakeMessage("d"));
+        assertEquals(1, session.getDroppedMessageCount());
+        assertEquals(new FakeMessage("a"), channel.readOutbound());
+        channel.flush();
+        channel.readOutbound();
+        assertEquals(new FakeMessage("d"), channel.readOutbound());
+    }
+
+    @Test
+    public void testUnwritableTimeout() throws Exception {
+        final EmbeddedChannel channel = new EmbeddedChannel();
+        final BasicSession session = newSession(channel);
+        session.setUnwritableTimeout(1, TimeUnit.MILLISECONDS);
+
+        fillOutboundBuffer(channel);
+        Thread.sleep(10);
+        channel.runScheduledPendingTasks();
+        assertFalse(session.isActive());
+    }
+
+    @Test
+    public void testWritableAgainInTime() throws Exception {
+        final EmbeddedChannel channel = new EmbeddedChannel();
+        final BasicSession session = newSession(channel);
+        session.setUnwritableTimeout(1, TimeUnit.MILLISECONDS);
+
+        fillOutboundBuffer(channel);
+        channel.flush();
+        assertTrue(session.isWritable());
+        Thread.sleep(10);
+        channel.runScheduledPendingTasks();
+        assertTrue(session.isActive());
+    }
+
+    @Test
+    public void testFailedSendIsReportedOutbound() {
+        final Throwable[] outbound = new Throwable[1];
+        final MessageHandler handler = new MessageHandler(new FakeConnectionManager(new FakeProtocol()) {
+            @Override
+            public Session newSession(Channel c) {
+                return new BasicSession(c, new FakeProtocol()) {
+                    @Override
+                    public void onOutboundThrowable(Throwable throwable) {
+                        outbound[0] = throwable;
+                    }
+
+                    @Override
+                    public void onInboundThrowable(Throwable throwable) {
+                        fail("Reported as inbound: " + throwable);
+                    }
+                };
+            }
+        });
+        final EmbeddedChannel channel = new EmbeddedChannel(new MessageEncoder(handler), handler);
+
+        // The protocol has no codec for this message, so encoding it fails after send has returned
+        handler.getSession().send(new Message() {
+        });
+        assertTrue(outbound[0] instanceof EncoderException);
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void testFailedTransportWriteIsReportedOutbound() {
+        final Throwable[] outbound = new Throwable[1];
+        final MessageHandler handler = new MessageHandler(new FakeConnectionManager(new FakeProtocol()) {
+            @Override
+            public Session newSession(Channel c) {
+                return new BasicSession(c, new FakeProtocol()) {
+                    @Override
+                    public void onOutboundThrowable(Throwable throwable) {
+                        outbound[0] = throwable;
+                    }
+
+                    @Override
+                    public void onInboundThrowable(Throwable throwable) {
+                        fail("Reported as inbound: " + throwable);
+                    }
+                };
+            }
+        });
+        final IOException failure = new IOException("Broken pipe");
+        final EmbeddedChannel channel = new EmbeddedChannel(new MessageEncoder(handler), handler) {
+            @Override
+            protected void doWrite(ChannelOutboundBuffer in) throws Exception {
+                throw failure;
+            }
+        };
+
+        handler.getSession().send(new FakeMessage("a"));
+        assertEquals(failure, outbound[0]);
+        assertFalse(channel.isActive());
+    }
+
+    private static BasicSession newSession(EmbeddedChannel channel) {
+        final BasicSession session = new BasicSession(channel, new FakeProtocol());
+        session.setWriteBufferWatermarks(8, 16);
+        channel.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+            @Override
+            public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+                session.onWritabilityChanged(ctx.channel().isWritable());
+            }
+        });
+        return session;
+    }
+
+    private static void fillOutboundBuffer(EmbeddedChannel channel) {
+        channel.write(Unpooled.buffer(32).writeZero(32));
+    }
+
+    private static class Position extends FakeMessage implements DroppableMessage {
+        private Position(String text) {
+            super(text);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.session;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.flowpowered.network.fake.FakeConnectionManager;
+import com.flowpowered.network.fake.FakeMessage;
+import com.flowpowered.network.fake.FakeProtocol;
+import com.flowpowered.network.pipeline.MessageEncoder;
+import com.flowpowered.network.pipeline.MessageHandler;
+import com.flowpowered.network.pipeline.MessageProcessorEncoder;
+import com.flowpowered.network.util.ByteBufUtils;
+
+public class BroadcasterTest {
+    @Test
+    public void testBroadcast() throws Exception {
+        final FakeConnectionManager connectionManager = new FakeConnectionManager(new FakeProtocol());
+        final List<EmbeddedChannel> channels = new ArrayList<>();
+        final List<BasicSession> sessions = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            MessageHandler handler = new MessageHandler(connectionManager);
+            channels.add(new EmbeddedChannel(new MessageProcessorEncoder(handler), new MessageEncoder(handler), handler));
+            sessions.add((BasicSession) handler.getSession());
+        }
+
+        Broadcaster.broadcast(new FakeMessage("Hello"), sessions);
+        ByteBuf last = null;
+        for (EmbeddedChannel channel : channels) {
+            ByteBuf frame = (ByteBuf) channel.readOutbound();
+            assertEquals(1, ByteBufUtils.readVarInt(frame));
+            int length = ByteBufUtils.readVarInt(frame);
+            assertEquals(length, frame.readableBytes());
+            assertEquals("Hello", ByteBufUtils.readUTF8(frame));
+            frame.release();
+            assertNull(channel.readOutbound());
+            channel.finish();
+            last = frame;
+        }
+        // The frames were duplicates of one buffer, released with the last of them
+        assertEquals(0, last.refCnt());
+    }
+}
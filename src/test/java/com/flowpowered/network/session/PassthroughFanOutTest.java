@@ -0,0 +1,101 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.session;
+
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.Channel;
+import io.netty.channel.local.LocalAddress;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.flowpowered.network.Message;
+import com.flowpowered.network.NetworkClient;
+import com.flowpowered.network.NetworkServer;
+import com.flowpowered.network.Transport;
+import com.flowpowered.network.fake.FakeMessage;
+import com.flowpowered.network.fake.FakeProtocol;
+
+public class PassthroughFanOutTest {
+    @Test
+    public void testBroadcasterAndSessionGroup() throws Exception {
+        final BlockingQueue<BasicSession> serverSessions = new LinkedBlockingQueue<>();
+        final BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+        final NetworkServer server = new NetworkServer(Transport.LOCAL) {
+            @Override
+            public Session newSession(Channel c) {
+                final BasicSession session = new BasicSession(c, new FakeProtocol());
+                serverSessions.add(session);
+                return session;
+            }
+
+            @Override
+            public void sessionInactivated(Session session) {
+            }
+        };
+        final NetworkClient client = new NetworkClient(Transport.LOCAL) {
+            @Override
+            public Session newSession(Channel c) {
+                return new BasicSession(c, new FakeProtocol()) {
+                    @Override
+                    public void messageReceived(Message message) {
+                        received.add(message);
+                    }
+                };
+            }
+
+            @Override
+            public void sessionInactivated(Session session) {
+            }
+        };
+        try {
+            server.setMessagePassthrough(true);
+            client.setMessagePassthrough(true);
+            final LocalAddress address = new LocalAddress("fan-out");
+            server.bind(address).sync();
+            client.connect(address).sync();
+            final BasicSession session = serverSessions.poll(5, TimeUnit.SECONDS);
+
+            // Without an encoder in the pipeline, the message itself is handed over instead of a frame
+            final FakeMessage broadcast = new FakeMessage("broadcast");
+            Broadcaster.broadcast(broadcast, Collections.singletonList(session));
+            assertSame(broadcast, received.poll(5, TimeUnit.SECONDS));
+
+            final SessionGroup group = new SessionGroup();
+            group.add(session);
+            final FakeMessage grouped = new FakeMessage("group");
+            group.send(grouped);
+            assertSame(grouped, received.poll(5, TimeUnit.SECONDS));
+            assertEquals(0, received.size());
+        } finally {
+            client.shutdown();
+            server.shutdown();
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.session;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.DefaultChannelConfig;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.flowpowered.network.ConflatableMessage;
+import com.flowpowered.network.MessagePriority;
+import com.flowpowered.network.fake.FakeConnectionManager;
+import com.flowpowered.network.fake.FakeMessage;
+import com.flowpowered.network.fake.FakeProtocol;
+import com.flowpowered.network.pipeline.MessageEncoder;
+import com.flowpowered.network.pipeline.MessageHandler;
+import com.flowpowered.network.session.PulsingSession.OverflowPolicy;
+
+public class PulsingSessionTest {
+    @Test
+    public void testMaxMessagesPerPulse() {
+        final PulsingSession session = new PulsingSession(new EmbeddedChannel(), new FakeProtocol());
+        session.setMaxMessagesPerPulse(2);
+        receive(session, 5);
+        assertEquals(5, session.getQueuedMessageCount());
+        session.pulse();
+        assertEquals(3, session.getQueuedMessageCount());
+        session.pulse();
+        session.pulse();
+        assertEquals(0, session.getQueuedMessageCount());
+    }
+
+    @Test
+    public void testMessagesReceived() {
+        final PulsingSession session = new PulsingSession(new EmbeddedChannel(), new FakeProtocol());
+        session.setInboundCapacity(4);
+        session.messagesReceived(Arrays.asList(new FakeMessage("a"), new FakeMessage("b"), new FakeMessage("c")));
+        assertEquals(3, session.getQueuedMessageCount());
+
+        // The batch doesn't fit, so the overflow policy applies to the message past the capacity
+        session.messagesReceived(Arrays.asList(new FakeMessage("d"), new FakeMessage("e")));
+        assertEquals(4, session.getQueuedMessageCount());
+        assertFalse(session.isActive());
+    }
+
+    @Test
+    public void testDropOldest() {
+        final PulsingSession session = new PulsingSession(new EmbeddedChannel(), new FakeProtocol());
+        session.setInboundCapacity(3);
+        session.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+        receive(session, 5);
+        assertEquals(3, session.getQueuedMessageCount());
+        assertTrue(session.isActive());
+    }
+
+    @Test
+    public void testDisconnect() {
+        final PulsingSession session = new PulsingSession(new EmbeddedChannel(), new FakeProtocol());
+        session.setInboundCapacity(3);
+        receive(session, 4);
+        assertEquals(3, session.getQueuedMessageCount());
+        assertFalse(session.isActive());
+    }
+
+    @Test
+    public void testBackpressure() {
+        final EmbeddedChannel channel = new EmbeddedChannel();
+        final PulsingSession session = new PulsingSession(channel, new FakeProtocol());
+        session.setInboundCapacity(3);
+        session.setOverflowPolicy(OverflowPolicy.BACKPRESSURE);
+        receive(session, 2);
+        assertTrue(channel.config().isAutoRead());
+        receive(session, 2);
+        assertFalse(channel.config().isAutoRead());
+        assertEquals(4, session.getQueuedMessageCount());
+        session.pulse();
+        assertTrue(channel.config().isAutoRead());
+    }
+
+    @Test
+    public void testDrainWhileSuspending() throws Exception {
+        final CountDownLatch suspending = new CountDownLatch(1);
+        final CountDownLatch suspend = new CountDownLatch(1);
+        final EmbeddedChannel channel = new EmbeddedChannel() {
+            private ChannelConfig config;
+
+            @Override
+            public synchronized ChannelConfig config() {
+                if (config == null) {
+                    // Holds up the suspension of reading until the test lets it go
+                    config = new DefaultChannelConfig(this) {
+                        @Override
+                        public ChannelConfig setAutoRead(boolean autoRead) {
+                            if (!autoRead && suspending.getCount() > 0) {
+                                suspending.countDown();
+                                try {
+                                    suspend.await(10, TimeUnit.SECONDS);
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                }
+                            }
+                            return super.setAutoRead(autoRead);
+                        }
+                    };
+                }
+                return config;
+            }
+        };
+        final PulsingSession session = new PulsingSession(channel, new FakeProtocol());
+        session.setInboundCapacity(2);
+        session.setOverflowPolicy(OverflowPolicy.BACKPRESSURE);
+        final Thread network = new Thread() {
+            @Override
+            public void run() {
+                receive(session, 2);
+            }
+        };
+        network.start();
+        assertTrue(suspending.await(10, TimeUnit.SECONDS));
+
+        // The queue is drained while reading is being suspended
+        final Thread pulsing = new Thread() {
+            @Override
+            public void run() {
+                session.pulse();
+            }
+        };
+        pulsing.start();
+        while (pulsing.getState() != Thread.State.BLOCKED && pulsing.getState() != Thread.State.TERMINATED) {
+            Thread.sleep(1);
+        }
+        suspend.countDown();
+        network.join();
+        pulsing.join();
+        session.pulse();
+        assertEquals(0, session.getQueuedMessageCount());
+        assertTrue(channel.config().isAutoRead());
+    }
+
+    @Test
+    public void testBatchQueuedSends() {
+        final EmbeddedChannel channel = new EmbeddedChannel();
+        final PulsingSession session = new PulsingSession(channel, new FakeProtocol());
+        session.setState(PulsingSession.State.OPEN);
+        session.setBatchQueuedSends(true);
+        session.send(new FakeMessage("a"));
+        session.send(new FakeMessage("b"));
+        channel.runPendingTasks();
+        assertNull(channel.readOutbound());
+
+        session.pulse();
+        channel.runPendingTasks();
+        assertEquals(new FakeMessage("a"), channel.readOutbound());
+        assertEquals(new FakeMessage("b"), channel.readOutbound());
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void testMaxBytesPerPulse() {
+        final EmbeddedChannel channel = newEncodingChannel(null);
+        final PulsingSession session = (PulsingSession) channel.pipeline().get(MessageHandler.class).getSession();
+        session.setState(PulsingSession.State.OPEN);
+        session.setBatchQueuedSends(true);
+        // Each message encodes to 7 bytes, so a pulse stops after the second
+        session.setMaxBytesPerPulse(10);
+        for (int i = 0; i < 5; i++) {
+            session.send(new FakeMessage("text"));
+        }
+        session.pulse();
+        channel.runPendingTasks();
+        assertEquals(3, session.getQueuedSendCount());
+        session.pulse();
+        channel.runPendingTasks();
+        assertEquals(1, session.getQueuedSendCount());
+        session.pulse();
+        channel.runPendingTasks();
+        assertEquals(0, session.getQueuedSendCount());
+    }
+
+    @Test
+    public void testCloseDuringPulse() {
+        final EmbeddedChannel channel = newEncodingChannel(new ChannelOutboundHandlerAdapter() {
+            @Override
+            public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+                ctx.write(msg, promise);
+                ctx.close();
+            }
+        });
+        final PulsingSession session = (PulsingSession) channel.pipeline().get(MessageHandler.class).getSession();
+        session.setState(PulsingSession.State.OPEN);
+        session.setBatchQueuedSends(true);
+        for (int i = 0; i < 3; i++) {
+            session.send(new FakeMessage("text"));
+        }
+        // The channel closes after the first message, and the others are dropped rather than written to a closed channel
+        session.pulse();
+        channel.runPendingTasks();
+        assertFalse(session.isActive());
+        assertEquals(0, session.getQueuedSendCount());
+    }
+
+    private static EmbeddedChannel newEncodingChannel(ChannelHandler first) {
+        final MessageHandler handler = new MessageHandler(new FakeConnectionManager(new FakeProtocol()) {
+            @Override
+            public Session newSession(Channel c) {
+                return new PulsingSession(c, new FakeProtocol());
+            }
+        });
+        if (first == null) {
+            return new EmbeddedChannel(new MessageEncoder(handler), handler);
+        }
+        return new EmbeddedChannel(first, new MessageEncoder(handler), handler);
+    }
+
+    @Test
+    public void testConflateQueuedSends() {
+        final EmbeddedChannel channel = new EmbeddedChannel();
+        final PulsingSession session = new PulsingSession(channel, new FakeProtocol());
+        session.setState(PulsingSession.State.OPEN);
+        session.setBatchQueuedSends(true);
+        session.setConflateQueuedSends(true);
+        session.send(new Position(1, "a"));
+        session.send(new FakeMessage("b"));
+        session.send(new Position(2, "c"));
+        session.send(new Position(1, "d"));
+        assertEquals(1, session.getConflatedMessageCount());
+
+        // The newer position of entity 1 takes the place of the older one
+        session.pulse();
+        channel.runPendingTasks();
+        assertEquals(new Position(1, "d"), channel.readOutbound());
+        assertEquals(new FakeMessage("b"), channel.readOutbound());
+        assertEquals(new Position(2, "c"), channel.readOutbound());
+        assertNull(channel.readOutbound());
+
+        // Once sent, a position is queued again rather than replaced
+        session.send(new Position(1, "e"));
+        session.pulse();
+        channel.runPendingTasks();
+        assertEquals(new Position(1, "e"), channel.readOutbound());
+    }
+
+    @Test
+    public void testPriorities() {
+        final EmbeddedChannel channel = new EmbeddedChannel();
+        final PulsingSession session = new PulsingSession(channel, new FakeProtocol());
+        session.setState(PulsingSession.State.OPEN);
+        session.setBatchQueuedSends(true);
+        for (int i = 0; i < 3; i++) {
+            session.send(PulsingSession.SendType.QUEUE, MessagePriority.LOW, new FakeMessage("l" + i));
+        }
+        for (int i = 0; i < 6; i++) {
+            session.send(new FakeMessage("n" + i));
+        }
+        for (int i = 0; i < 2; i++) {
+            session.send(PulsingSession.SendType.QUEUE, MessagePriority.HIGH, new FakeMessage("h" + i));
+        }
+        session.send(PulsingSession.SendType.QUEUE, MessagePriority.CONTROL, new FakeMessage("c"));
+        assertEquals(new FakeMessage("c"), channel.readOutbound());
+        assertNull(channel.readOutbound());
+
+        // Each queue writes up to its weight in turn: 8 high, 4 normal and 1 low
+        session.pulse();
+        channel.runPendingTasks();
+        for (String text : new String[] {"h0", "h1", "n0", "n1", "n2", "n3", "l0", "n4", "n5", "l1", "l2"}) {
+            assertEquals(new FakeMessage(text), channel.readOutbound());
+        }
+        assertNull(channel.readOutbound());
+        assertEquals(0, session.getQueuedSendCount());
+    }
+
+    private static void receive(PulsingSession session, int count) {
+        for (int i = 0; i < count; i++) {
+            session.messageReceived(new FakeMessage(Integer.toString(i)));
+        }
+    }
+
+    private static class Position extends FakeMessage implements ConflatableMessage {
+        private final int entity;
+
+        private Position(int entity, String text) {
+            super(text);
+            this.entity = entity;
+        }
+
+        @Override
+        public Object getConflationKey() {
+            return entity;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.session;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.flowpowered.network.exception.ChannelClosedException;
+import com.flowpowered.network.fake.FakeConnectionManager;
+import com.flowpowered.network.fake.FakeMessage;
+import com.flowpowered.network.fake.FakeProtocol;
+import com.flowpowered.network.pipeline.MessageEncoder;
+import com.flowpowered.network.pipeline.MessageHandler;
+import com.flowpowered.network.pipeline.MessageProcessorEncoder;
+
+public class SessionGroupTest {
+    @Test
+    public void testSend() throws Exception {
+        final FakeConnectionManager connectionManager = new FakeConnectionManager(new FakeProtocol());
+        final List<EmbeddedChannel> channels = new ArrayList<>();
+        final List<BasicSession> sessions = new ArrayList<>();
+        final SessionGroup group = new SessionGroup();
+        for (int i = 0; i < 3; i++) {
+            MessageHandler handler = new MessageHandler(connectionManager);
+            channels.add(new EmbeddedChannel(new MessageProcessorEncoder(handler), new MessageEncoder(handler), handler));
+            sessions.add((BasicSession) handler.getSession());
+            assertTrue(group.add(sessions.get(i)));
+        }
+        assertFalse(group.add(sessions.get(0)));
+        assertEquals(3, group.size());
+
+        group.send(new FakeMessage("Hello"), SessionGroup.exclude(sessions.get(1)));
+        for (int i = 0; i < 3; i++) {
+            channels.get(i).runPendingTasks();
+            ByteBuf frame = (ByteBuf) channels.get(i).readOutbound();
+            if (i == 1) {
+                assertNull(frame);
+            } else {
+                frame.release();
+            }
+        }
+
+        channels.get(2).close();
+        assertFalse(group.contains(sessions.get(2)));
+        assertEquals(2, group.size());
+    }
+
+    @Test
+    public void testFailedSendDoesNotStopOthers() throws Exception {
+        final MessageHandler handler = new MessageHandler(new FakeConnectionManager(new FakeProtocol()));
+        final EmbeddedChannel channel = new EmbeddedChannel(new MessageEncoder(handler), handler);
+        final Throwable[] outbound = new Throwable[1];
+        // Shares the event loop with the session of the handler, so that both are sent to by the same task
+        final BasicSession closing = new BasicSession(channel, new FakeProtocol()) {
+            @Override
+            void sendFrame(ByteBuf frame) {
+                frame.release();
+                throw new ChannelClosedException("Closed concurrently");
+            }
+
+            @Override
+            public void onOutboundThrowable(Throwable throwable) {
+                outbound[0] = throwable;
+            }
+        };
+        final SessionGroup group = new SessionGroup();
+        assertTrue(group.add(closing));
+        assertTrue(group.add((BasicSession) handler.getSession()));
+
+        group.send(new FakeMessage("Hello"));
+        channel.runPendingTasks();
+        assertTrue(outbound[0] instanceof ChannelClosedException);
+        final ByteBuf frame = (ByteBuf) channel.readOutbound();
+        assertTrue(frame.release());
+        assertNull(channel.readOutbound());
+    }
+}
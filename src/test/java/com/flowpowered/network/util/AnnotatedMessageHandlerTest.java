@@ -0,0 +1,81 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+import com.flowpowered.network.Message;
+import com.flowpowered.network.fake.FakeMessage;
+import com.flowpowered.network.util.AnnotatedMessageHandler.Handle;
+
+public class AnnotatedMessageHandlerTest {
+    @Test
+    public void testHandle() {
+        final Handler handler = new Handler();
+        final AnnotatedMessageHandler annotated = new AnnotatedMessageHandler(handler);
+        annotated.handle(new FakeMessage("exact"));
+        annotated.handle(new SubMessage("sub"));
+        annotated.handle(new OtherMessage());
+        assertEquals("[fake:exact, fake:sub, message:other]", handler.handled.toString());
+    }
+
+    @Test (expected = RuntimeException.class)
+    public void testHandleFailure() {
+        new AnnotatedMessageHandler(new Handler()).handle(new FakeMessage("fail"));
+    }
+
+    private static class Handler {
+        private final List<String> handled = new ArrayList<>();
+
+        @Handle
+        private void handleFake(FakeMessage message) {
+            if (message.getText().equals("fail")) {
+                throw new IllegalStateException();
+            }
+            handled.add("fake:" + message.getText());
+        }
+
+        @Handle
+        private void handleAny(Message message) {
+            handled.add("message:" + message);
+        }
+    }
+
+    private static class SubMessage extends FakeMessage {
+        private SubMessage(String text) {
+            super(text);
+        }
+    }
+
+    private static class OtherMessage implements Message {
+        @Override
+        public String toString() {
+            return "other";
+        }
+    }
+}
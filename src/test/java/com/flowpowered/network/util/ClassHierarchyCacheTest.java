@@ -0,0 +1,53 @@
+/*
+ * This file is part of Flow Network, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2013 Flow Powered <https://flowpowered.com/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.flowpowered.network.util;
+
+import java.io.Serializable;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ClassHierarchyCacheTest {
+    @Test
+    public void testResolution() {
+        ClassHierarchyCache<String> cache = new ClassHierarchyCache<>();
+        assertNull(cache.find(Integer.class));
+
+        cache.put(Serializable.class, "serializable");
+        assertEquals("serializable", cache.find(Integer.class));
+
+        // A closer supertype registered later takes over
+        cache.put(Number.class, "number");
+        assertEquals("number", cache.find(Integer.class));
+        assertEquals("number", cache.find(Long.class));
+        assertEquals("serializable", cache.find(String.class));
+        assertNull(cache.getExact(Integer.class));
+
+        cache.put(Integer.class, "integer");
+        assertEquals("integer", cache.find(Integer.class));
+        assertEquals("number", cache.find(Long.class));
+        assertNull(cache.find(Object.class));
+    }
+}